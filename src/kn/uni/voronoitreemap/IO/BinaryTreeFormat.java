@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import kn.uni.voronoitreemap.interfaces.data.CompactTree;
+import kn.uni.voronoitreemap.interfaces.data.TreeData;
+
+/**
+ * Binary file format of a tree, which is read without parsing text or
+ * resolving names. All numbers are little endian:
+ * 
+ * <pre>
+ * int    magic "VTB1"
+ * int    version
+ * int    number of nodes n
+ * int    index of the root
+ * int    length of the name blob in bytes
+ * int    number of nodes with a parent m
+ * int    flags, 1 if the node ids are stored
+ * int    0, reserved
+ * int    parent[n], -1 for the root and nodes without parent
+ * int    children[m], the children of each node in their order
+ * int    nodeId[n], only if the node ids are stored
+ * int    padding if the number of ints is odd
+ * double weight[n]
+ * int    nameEnd[n], name i is blob[nameEnd[i-1]] to blob[nameEnd[i]-1], the
+ *        highest bit is set if the node has no name
+ * byte   blob[], UTF-8 encoded names
+ * </pre>
+ * 
+ * The children are grouped by their parent in the order of the parent ids.
+ * 
+ * @author Arlind Nocaj
+ * 
+ */
+public class BinaryTreeFormat {
+
+	private static final int magic = 0x31425456;
+	private static final int version = 1;
+	private static final int headerSize = 32;
+	private static final int hasNodeIds = 1;
+	/** marks the end of a missing name **/
+	private static final int noName = 0x80000000;
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: BinaryTreeFormat <edge list> <binary file>");
+			return;
+		}
+		try {
+			convert(args[0], args[1]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Converts an edge list "nodeId;parentId;name;weight" to the binary
+	 * format. Files of 2GB or more are read by
+	 * {@link IO#readEdgeListParallel(String, int)}.
+	 * 
+	 * @param edgeListFile
+	 * @param binaryFile
+	 * @throws IOException
+	 */
+	public static void convert(String edgeListFile, String binaryFile) throws IOException {
+		TreeData data;
+		if (new File(edgeListFile).length() > Integer.MAX_VALUE)
+			data = IO.readEdgeListParallel(edgeListFile, Runtime.getRuntime().availableProcessors());
+		else
+			data = IO.readEdgeListMapped(edgeListFile);
+		write(data, binaryFile);
+	}
+
+	/**
+	 * Writes the tree in the binary format.
+	 * 
+	 * @param data
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void write(TreeData data, String filename) throws IOException {
+		CompactTree tree = data.toCompactTree();
+		int size = tree.size();
+		byte[][] names = new byte[size][];
+		long blobLength = 0;
+		for (int i = 0; i < size; i++) {
+			String name = tree.getName(i);
+			if (name == null)
+				continue;
+			names[i] = name.getBytes(StandardCharsets.UTF_8);
+			blobLength += names[i].length;
+		}
+		if (blobLength > Integer.MAX_VALUE)
+			throw new IOException("Names too long for the binary format.");
+		int children = tree.children.length;
+		int[] childOffsets = childOffsets(tree.parent);
+		for (int i = 0; i < size; i++)
+			if (childOffsets[i + 1] - childOffsets[i] != tree.getChildCount(i))
+				throw new IOException("Children do not match the parents of the tree.");
+		int[] nodeIds = tree.nodeIds;
+		int ints = size + children + ((nodeIds != null) ? size : 0);
+
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			block.putInt(magic).putInt(version).putInt(size).putInt(tree.rootIndex)
+					.putInt((int) blobLength).putInt(children)
+					.putInt((nodeIds != null) ? hasNodeIds : 0).putInt(0);
+			for (int i = 0; i < size; i++) {
+				block = flushIfFull(channel, block, 4);
+				block.putInt(tree.parent[i]);
+			}
+			for (int i = 0; i < children; i++) {
+				block = flushIfFull(channel, block, 4);
+				block.putInt(tree.children[i]);
+			}
+			if (nodeIds != null)
+				for (int i = 0; i < size; i++) {
+					block = flushIfFull(channel, block, 4);
+					block.putInt(nodeIds[i]);
+				}
+			if (ints % 2 == 1) {
+				block = flushIfFull(channel, block, 4);
+				block.putInt(0);
+			}
+			for (int i = 0; i < size; i++) {
+				block = flushIfFull(channel, block, 8);
+				block.putDouble(tree.getWeight(i));
+			}
+			int offset = 0;
+			for (int i = 0; i < size; i++) {
+				block = flushIfFull(channel, block, 4);
+				if (names[i] == null)
+					block.putInt(offset | noName);
+				else {
+					offset += names[i].length;
+					block.putInt(offset);
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				byte[] name = names[i];
+				if (name == null)
+					continue;
+				for (int k = 0; k < name.length; ) {
+					if (!block.hasRemaining())
+						flush(channel, block);
+					int length = Math.min(block.remaining(), name.length - k);
+					block.put(name, k, length);
+					k += length;
+				}
+			}
+			flush(channel, block);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer block, int bytes)
+			throws IOException {
+		if (block.remaining() < bytes)
+			flush(channel, block);
+		return block;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer block) throws IOException {
+		block.flip();
+		while (block.hasRemaining())
+			channel.write(block);
+		block.clear();
+	}
+
+	/**
+	 * @return start of the children of each node, counted from the parents
+	 */
+	private static int[] childOffsets(int[] parent) {
+		int size = parent.length;
+		int[] childOffsets = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			if (parent[i] >= 0)
+				childOffsets[parent[i] + 1]++;
+		for (int i = 0; i < size; i++)
+			childOffsets[i + 1] += childOffsets[i];
+		return childOffsets;
+	}
+
+	/**
+	 * Maps the file and copies the arrays in bulk, the child offsets are
+	 * counted from the parents. The parents and children are checked to
+	 * form a consistent tree.
+	 * 
+	 * @param filename
+	 * @return tree data whose adjacency lists and node attributes are null
+	 * @throws IOException
+	 */
+	public static TreeData read(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			if (fileSize < headerSize)
+				throw new IOException("Not a binary tree file: " + filename);
+			if (fileSize > Integer.MAX_VALUE)
+				throw new IOException("File too large to be mapped: " + filename);
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, fileSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != magic)
+				throw new IOException("Not a binary tree file: " + filename);
+			int fileVersion = buffer.getInt(4);
+			if (fileVersion != version)
+				throw new IOException("Unsupported version " + fileVersion + ": " + filename);
+			int size = buffer.getInt(8);
+			int rootIndex = buffer.getInt(12);
+			int blobLength = buffer.getInt(16);
+			int children = buffer.getInt(20);
+			int flags = buffer.getInt(24);
+			boolean withIds = (flags & hasNodeIds) != 0;
+
+			long ints = (long) size + children + (withIds ? size : 0);
+			long weightStart = headerSize + 4L * (ints + ints % 2);
+			long offsetStart = weightStart + 8L * size;
+			long blobStart = offsetStart + 4L * size;
+			if (size < 0 || children < 0 || blobLength < 0
+					|| blobStart + blobLength != fileSize
+					|| (size > 0 && (rootIndex < 0 || rootIndex >= size)))
+				throw new IOException("Corrupt binary tree file: " + filename);
+
+			int[] parent = new int[size];
+			buffer.position(headerSize);
+			buffer.asIntBuffer().get(parent);
+			for (int i = 0; i < size; i++)
+				if (parent[i] < -1 || parent[i] >= size)
+					throw new IOException("Corrupt binary tree file: " + filename);
+			int[] childOffsets = childOffsets(parent);
+			if (childOffsets[size] != children)
+				throw new IOException("Corrupt binary tree file: " + filename);
+			int[] childIds = new int[children];
+			buffer.position(headerSize + 4 * size);
+			buffer.asIntBuffer().get(childIds);
+			// each child has to be listed under its own parent
+			for (int i = 0; i < size; i++)
+				for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++)
+					if (childIds[k] < 0 || childIds[k] >= size || parent[childIds[k]] != i)
+						throw new IOException("Corrupt binary tree file: " + filename);
+			int[] nodeIds = null;
+			if (withIds) {
+				nodeIds = new int[size];
+				buffer.position(headerSize + 4 * (size + children));
+				buffer.asIntBuffer().get(nodeIds);
+			}
+			double[] weight = new double[size];
+			buffer.position((int) weightStart);
+			buffer.asDoubleBuffer().get(weight);
+			int[] nameEnd = new int[size];
+			buffer.position((int) offsetStart);
+			buffer.asIntBuffer().get(nameEnd);
+			byte[] blob = new byte[blobLength];
+			buffer.position((int) blobStart);
+			buffer.get(blob);
+
+			String[] names = new String[size];
+			int start = 0;
+			for (int i = 0; i < size; i++) {
+				int end = nameEnd[i] & ~noName;
+				boolean missing = (nameEnd[i] & noName) != 0;
+				if (end < start || end > blobLength)
+					throw new IOException("Corrupt binary tree file: " + filename);
+				if (!missing)
+					names[i] = new String(blob, start, end - start, StandardCharsets.UTF_8);
+				start = end;
+			}
+
+			TreeData data = new TreeData();
+			data.compact = new CompactTree(childOffsets, childIds, parent, weight, names,
+					rootIndex);
+			data.compact.nodeIds = nodeIds;
+			data.rootIndex = rootIndex;
+			return data;
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.IO;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hash table which assigns the ids 0, 1, 2, ... to byte sequences in the
+ * order they are added. The keys are copied into one byte array, so no
+ * String or boxed Integer is created per key.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+class ByteKeyTable {
+
+	private byte[] keyBytes = new byte[1 << 12];
+	/** key i is keyBytes[keyStart[i]] to keyBytes[keyStart[i+1]-1] **/
+	private int[] keyStart = new int[257];
+	private int[] keyHash = new int[256];
+	/** id+1 of the key in each slot, 0 for empty slots **/
+	private int[] slots = new int[512];
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	byte[] getKeyBytes() {
+		return keyBytes;
+	}
+
+	int getKeyStart(int id) {
+		return keyStart[id];
+	}
+
+	int getKeyEnd(int id) {
+		return keyStart[id + 1];
+	}
+
+	/**
+	 * Returns the id of the bytes buffer[from] to buffer[to-1], a new id if
+	 * the bytes were not added before.
+	 */
+	public int add(ByteBuffer buffer, int from, int to) {
+		int hash = 0;
+		for (int i = from; i < to; i++)
+			hash = 31 * hash + buffer.get(i);
+		hash ^= hash >>> 16;
+
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (keyHash[id] == hash && equals(id, buffer, from, to))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+
+		int length = to - from;
+		int id = size;
+		if (id + 1 == keyHash.length) {
+			keyHash = Arrays.copyOf(keyHash, 2 * keyHash.length);
+			keyStart = Arrays.copyOf(keyStart, 2 * keyStart.length);
+		}
+		int start = keyStart[id];
+		if (start + length > keyBytes.length)
+			keyBytes = Arrays.copyOf(keyBytes,
+					Math.max(2 * keyBytes.length, start + length));
+		for (int i = 0; i < length; i++)
+			keyBytes[start + i] = buffer.get(from + i);
+		keyStart[id + 1] = start + length;
+		keyHash[id] = hash;
+		slots[slot] = id + 1;
+		size++;
+		if (2 * size > slots.length)
+			rehash();
+		return id;
+	}
+
+	private boolean equals(int id, ByteBuffer buffer, int from, int to) {
+		int start = keyStart[id];
+		if (keyStart[id + 1] - start != to - from)
+			return false;
+		for (int i = from; i < to; i++)
+			if (keyBytes[start++] != buffer.get(i))
+				return false;
+		return true;
+	}
+
+	private void rehash() {
+		slots = new int[2 * slots.length];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = keyHash[id] & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = id + 1;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.IO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses the lines "nodeId;parentId;..." of a part of an edge list in one
+ * pass over its bytes. The node and parent names are resolved to ids in the
+ * order they first appear, the weight and name columns of the last line of
+ * each node are kept.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+class EdgeListChunk {
+
+	private static final double[] powersOfTen = { 1E0, 1E1, 1E2, 1E3, 1E4,
+			1E5, 1E6, 1E7, 1E8, 1E9, 1E10, 1E11, 1E12, 1E13, 1E14, 1E15, 1E16,
+			1E17, 1E18, 1E19, 1E20, 1E21, 1E22 };
+
+	private final int weightIndex;
+	private final int nameIndex;
+
+	final ByteKeyTable keys = new ByteKeyTable();
+	/** number of edge lines **/
+	int lines = 0;
+	/** node and parent id of each edge line **/
+	int[] edgeChild = new int[1024];
+	int[] edgeParent = new int[1024];
+	/** last edge line of each node, -1 if it has none **/
+	int[] lastLine = new int[1024];
+	double[] weight = new double[1024];
+	/** position of the name column in the last line of each node **/
+	private int[] nameStart = new int[1024];
+	private int[] nameEnd = new int[1024];
+	/** set by {@link #decodeNames(ByteBuffer)} **/
+	String[] names;
+
+	/**
+	 * @param weightIndex
+	 *            column of the weight, -1 for the weight 1
+	 * @param nameIndex
+	 *            column of the name, -1 for empty names
+	 */
+	EdgeListChunk(int weightIndex, int nameIndex) {
+		this.weightIndex = weightIndex;
+		this.nameIndex = nameIndex;
+	}
+
+	/**
+	 * Parses the lines from buffer[from] to buffer[to-1], from has to be the
+	 * start of a line. Lines starting with '*' or '#' are skipped.
+	 */
+	void parse(ByteBuffer buffer, int from, int to) throws IOException {
+		int lastColumn = Math.max(1, Math.max(weightIndex, nameIndex));
+		int[] columnStart = new int[lastColumn + 1];
+		int[] columnEnd = new int[lastColumn + 1];
+		int position = from;
+		while (position < to) {
+			int lineStart = position;
+			int lineEnd = lineStart;
+			while (lineEnd < to && buffer.get(lineEnd) != '\n')
+				lineEnd++;
+			position = lineEnd + 1;
+			if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+				lineEnd--;
+			if (lineEnd == lineStart)
+				continue;
+			byte first = buffer.get(lineStart);
+			if (first == '*' || first == '#')
+				continue;
+
+			// split the columns which are needed
+			int column = 0;
+			columnStart[0] = lineStart;
+			for (int i = lineStart; i < lineEnd && column <= lastColumn; i++) {
+				if (buffer.get(i) == ';') {
+					columnEnd[column] = i;
+					column++;
+					if (column <= lastColumn)
+						columnStart[column] = i + 1;
+				}
+			}
+			if (column <= lastColumn)
+				columnEnd[column] = lineEnd;
+			if (column < lastColumn)
+				throw new IOException("Line has " + (column + 1)
+						+ " columns, expected at least " + (lastColumn + 1)
+						+ ": "
+						+ decode(buffer, lineStart, lineEnd));
+
+			int child = add(buffer, columnStart[0], columnEnd[0]);
+			int parent = add(buffer, columnStart[1], columnEnd[1]);
+
+			if (lines == edgeChild.length) {
+				edgeChild = Arrays.copyOf(edgeChild, 2 * lines);
+				edgeParent = Arrays.copyOf(edgeParent, 2 * lines);
+			}
+			edgeChild[lines] = child;
+			edgeParent[lines] = parent;
+			lastLine[child] = lines;
+			lines++;
+
+			weight[child] = (weightIndex >= 0) ? parseDouble(buffer,
+					columnStart[weightIndex], columnEnd[weightIndex]) : 1.0;
+			if (nameIndex >= 0) {
+				nameStart[child] = columnStart[nameIndex];
+				nameEnd[child] = columnEnd[nameIndex];
+			}
+		}
+	}
+
+	private int add(ByteBuffer buffer, int from, int to) {
+		int size = keys.size();
+		int id = keys.add(buffer, from, to);
+		if (id < size)
+			return id;
+		if (id == lastLine.length) {
+			int length = 2 * id;
+			lastLine = Arrays.copyOf(lastLine, length);
+			weight = Arrays.copyOf(weight, length);
+			nameStart = Arrays.copyOf(nameStart, length);
+			nameEnd = Arrays.copyOf(nameEnd, length);
+		}
+		// a node which only appears as parent has no line
+		lastLine[id] = -1;
+		weight[id] = 1.0;
+		return id;
+	}
+
+	/**
+	 * Creates the names of the nodes which have a line, the name is empty if
+	 * there is no name column.
+	 */
+	void decodeNames(ByteBuffer buffer) {
+		names = new String[keys.size()];
+		for (int id = 0; id < names.length; id++) {
+			if (lastLine[id] < 0)
+				continue;
+			names[id] = (nameIndex >= 0) ? decode(buffer, nameStart[id],
+					nameEnd[id]) : "";
+		}
+		nameStart = null;
+		nameEnd = null;
+	}
+
+	private static String decode(ByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(from + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses a decimal number without creating a String. Numbers with at most
+	 * 15 significant digits and a decimal exponent of at most 22 are exact
+	 * products or quotients of two doubles, all others are passed to
+	 * {@link Double#parseDouble(String)}, so the result is always the same.
+	 */
+	static double parseDouble(ByteBuffer buffer, int from, int to) {
+		int start = from;
+		int end = to;
+		while (start < end && buffer.get(start) <= ' ')
+			start++;
+		while (end > start && buffer.get(end - 1) <= ' ')
+			end--;
+
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+			negative = buffer.get(i++) == '-';
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		for (; i < end; i++) {
+			int d = buffer.get(i) - '0';
+			if (d < 0 || d > 9)
+				break;
+			anyDigit = true;
+			if (mantissa > 0 || d > 0)
+				digits++;
+			mantissa = 10 * mantissa + d;
+		}
+		if (i < end && buffer.get(i) == '.') {
+			for (i++; i < end; i++) {
+				int d = buffer.get(i) - '0';
+				if (d < 0 || d > 9)
+					break;
+				anyDigit = true;
+				if (mantissa > 0 || d > 0)
+					digits++;
+				mantissa = 10 * mantissa + d;
+				exponent--;
+			}
+		}
+		if (anyDigit && i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+				negativeExponent = buffer.get(i++) == '-';
+			int value = 0;
+			boolean exponentDigit = false;
+			for (; i < end && value < 10000; i++) {
+				int d = buffer.get(i) - '0';
+				if (d < 0 || d > 9)
+					break;
+				exponentDigit = true;
+				value = 10 * value + d;
+			}
+			if (!exponentDigit)
+				anyDigit = false;
+			exponent += negativeExponent ? -value : value;
+		}
+
+		if (!anyDigit || i != end || digits > 15 || exponent < -22
+				|| exponent > 22)
+			return Double.parseDouble(decode(buffer, from, to));
+		double value = (exponent >= 0) ? mantissa * powersOfTen[exponent]
+				: mantissa / powersOfTen[-exponent];
+		return negative ? -value : value;
+	}
+}
@@ -16,15 +16,34 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import kn.uni.voronoitreemap.interfaces.data.CompactTree;
 import kn.uni.voronoitreemap.interfaces.data.TreeData;
 
 public class IO {
 
+	/** limits of the size of the parts of {@link #readEdgeListParallel(String, int)} **/
+	private static final long minPartSize = 1 << 20;
+	private static final long maxPartSize = 1 << 30;
+
 	private static int countLines(String filename) throws FileNotFoundException, IOException {
 		BufferedReader reader = new BufferedReader(new FileReader(filename));
 		int n = 0;
@@ -51,6 +70,264 @@ public class IO {
 		}
 	}
 
+	/**
+	 * Reads the same format as {@link #readEdgeList(String)} in a single pass
+	 * over the memory mapped file. The lines are parsed in place and the tree
+	 * is built in compressed sparse row format, the adjacency lists and node
+	 * attributes of the returned data are null. Names are read as UTF-8, files
+	 * have to be smaller than 2GB.
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static TreeData readEdgeListMapped(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large to be mapped: " + filename);
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+
+			int headerEnd = 0;
+			while (headerEnd < size && buffer.get(headerEnd) != '\n')
+				headerEnd++;
+			String[] columnHeader = readHeader(buffer, headerEnd);
+
+			EdgeListChunk chunk = new EdgeListChunk(columnIndex(columnHeader, "weight"),
+					columnIndex(columnHeader, "name"));
+			chunk.parse(buffer, Math.min(headerEnd + 1, (int) size), (int) size);
+			chunk.decodeNames(buffer);
+
+			ArrayList<EdgeListChunk> chunks = new ArrayList<EdgeListChunk>(1);
+			chunks.add(chunk);
+			return toTreeData(chunks);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the same format as {@link #readEdgeListMapped(String)} with
+	 * several threads. The file is split into parts at line ends which are
+	 * mapped and parsed in parallel, each with its own name table. The parts
+	 * are merged in their order in the file, so the result is the same as the
+	 * one of {@link #readEdgeListMapped(String)}, also for files larger than
+	 * 2GB.
+	 * 
+	 * @param filename
+	 * @param threads
+	 *            number of parts parsed at the same time
+	 * @return
+	 * @throws IOException
+	 */
+	public static TreeData readEdgeListParallel(String filename, int threads)
+			throws IOException {
+		final FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		ForkJoinPool pool = null;
+		try {
+			long size = channel.size();
+			long dataStart = nextLineStart(channel, 0, size);
+			byte[] header = new byte[(int) Math.max(0, dataStart - 1)];
+			ByteBuffer headerBlock = ByteBuffer.wrap(header);
+			// a single read may return fewer bytes than asked for
+			while (headerBlock.hasRemaining()
+					&& channel.read(headerBlock, headerBlock.position()) > 0)
+				;
+			String[] columnHeader = new String(header, StandardCharsets.UTF_8).trim().split(";");
+			final int weightIndex = columnIndex(columnHeader, "weight");
+			final int nameIndex = columnIndex(columnHeader, "name");
+
+			// at least one part per thread, parts of at least 1MB and at most 1GB
+			long dataSize = size - dataStart;
+			int parts = (int) Math.max(1, Math.min(threads, dataSize / minPartSize));
+			parts = (int) Math.max(parts, (dataSize + maxPartSize - 1) / maxPartSize);
+			long[] partStart = new long[parts + 1];
+			partStart[0] = dataStart;
+			for (int i = 1; i < parts; i++)
+				partStart[i] = nextLineStart(channel,
+						Math.max(partStart[i - 1], dataStart + dataSize * i / parts), size);
+			partStart[parts] = size;
+
+			ArrayList<Callable<EdgeListChunk>> tasks = new ArrayList<Callable<EdgeListChunk>>(parts);
+			for (int i = 0; i < parts; i++) {
+				final long from = partStart[i];
+				final long length = partStart[i + 1] - from;
+				if (length > Integer.MAX_VALUE)
+					throw new IOException("Line too long in " + filename);
+				tasks.add(new Callable<EdgeListChunk>() {
+					@Override
+					public EdgeListChunk call() throws IOException {
+						MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, from, length);
+						EdgeListChunk chunk = new EdgeListChunk(weightIndex, nameIndex);
+						chunk.parse(buffer, 0, (int) length);
+						chunk.decodeNames(buffer);
+						return chunk;
+					}
+				});
+			}
+
+			pool = new ForkJoinPool(Math.max(1, Math.min(threads, parts)));
+			ArrayList<EdgeListChunk> chunks = new ArrayList<EdgeListChunk>(parts);
+			for (Future<EdgeListChunk> future : pool.invokeAll(tasks))
+				chunks.add(future.get());
+			return toTreeData(chunks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Reading " + filename + " was interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return position after the first line end at or after position - 1, so
+	 *         a position at the start of a line is returned unchanged
+	 */
+	private static long nextLineStart(FileChannel channel, long position,
+			long size) throws IOException {
+		if (position == 0)
+			return lineEnd(channel, 0, size);
+		return lineEnd(channel, position - 1, size);
+	}
+
+	/**
+	 * @return position after the first '\n' at or after position, size if
+	 *         there is none
+	 */
+	private static long lineEnd(FileChannel channel, long position, long size)
+			throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(1 << 12);
+		while (position < size) {
+			block.clear();
+			int read = channel.read(block, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++)
+				if (block.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	private static String[] readHeader(ByteBuffer buffer, int headerEnd) {
+		byte[] header = new byte[headerEnd];
+		for (int i = 0; i < headerEnd; i++)
+			header[i] = buffer.get(i);
+		return new String(header, StandardCharsets.UTF_8).trim().split(";");
+	}
+
+	/**
+	 * @return last column with the given name, -1 if there is none
+	 */
+	private static int columnIndex(String[] columnHeader, String name) {
+		int index = -1;
+		for (int i = 0; i < columnHeader.length; i++)
+			if (columnHeader[i].equals(name))
+				index = i;
+		return index;
+	}
+
+	/**
+	 * Merges parsed parts of an edge list in their order in the file. Node
+	 * ids are given in the order the names appear in the file, a node takes
+	 * the parent, weight and name of its last line and the children of a node
+	 * are in the order of their lines. The root is found by following the
+	 * parents from the node with id 0.
+	 */
+	private static TreeData toTreeData(List<EdgeListChunk> chunks) {
+		// the ids of the first part are the final ids
+		EdgeListChunk first = chunks.get(0);
+		ByteKeyTable keys = first.keys;
+		int lines = 0;
+		for (EdgeListChunk chunk : chunks)
+			lines += chunk.lines;
+
+		int[] edgeChild = first.edgeChild;
+		int[] edgeParent = first.edgeParent;
+		int[] lastLine = first.lastLine;
+		double[] weight = first.weight;
+		String[] names = first.names;
+		if (chunks.size() > 1) {
+			edgeChild = Arrays.copyOf(edgeChild, lines);
+			edgeParent = Arrays.copyOf(edgeParent, lines);
+			int line = first.lines;
+			for (int c = 1; c < chunks.size(); c++) {
+				EdgeListChunk chunk = chunks.get(c);
+				ByteBuffer chunkKeys = ByteBuffer.wrap(chunk.keys.getKeyBytes());
+				int oldSize = keys.size();
+				int[] globalId = new int[chunk.keys.size()];
+				for (int id = 0; id < globalId.length; id++)
+					globalId[id] = keys.add(chunkKeys, chunk.keys.getKeyStart(id),
+							chunk.keys.getKeyEnd(id));
+				if (keys.size() > lastLine.length) {
+					int length = Math.max(keys.size(), 2 * lastLine.length);
+					lastLine = Arrays.copyOf(lastLine, length);
+					weight = Arrays.copyOf(weight, length);
+				}
+				if (keys.size() > names.length)
+					names = Arrays.copyOf(names, Math.max(keys.size(), 2 * names.length));
+				// new nodes get their line from this part if they have one
+				Arrays.fill(lastLine, oldSize, keys.size(), -1);
+				Arrays.fill(weight, oldSize, keys.size(), 1.0);
+				for (int id = 0; id < globalId.length; id++) {
+					if (chunk.lastLine[id] < 0)
+						continue;
+					int g = globalId[id];
+					lastLine[g] = line + chunk.lastLine[id];
+					weight[g] = chunk.weight[id];
+					names[g] = chunk.names[id];
+				}
+				for (int k = 0; k < chunk.lines; k++) {
+					edgeChild[line + k] = globalId[chunk.edgeChild[k]];
+					edgeParent[line + k] = globalId[chunk.edgeParent[k]];
+				}
+				line += chunk.lines;
+			}
+		}
+
+		int size = keys.size();
+		int[] parent = new int[size];
+		int[] childOffsets = new int[size + 1];
+		int entries = 0;
+		for (int id = 0; id < size; id++) {
+			parent[id] = -1;
+			if (lastLine[id] >= 0) {
+				parent[id] = edgeParent[lastLine[id]];
+				childOffsets[parent[id] + 1]++;
+				entries++;
+			}
+		}
+		for (int id = 0; id < size; id++)
+			childOffsets[id + 1] += childOffsets[id];
+		int[] children = new int[childOffsets[size]];
+		int[] next = Arrays.copyOf(childOffsets, size);
+		for (int k = 0; k < lines; k++) {
+			int child = edgeChild[k];
+			if (lastLine[child] == k)
+				children[next[parent[child]]++] = child;
+		}
+
+		int root = 0;
+		for (int steps = 0; steps < size && parent[root] >= 0; steps++)
+			root = parent[root];
+
+		System.out.println("Read nodes: # " + entries);
+
+		TreeData data = new TreeData();
+		data.compact = new CompactTree(childOffsets, children, parent,
+				Arrays.copyOf(weight, size), Arrays.copyOf(names, size), root);
+		data.rootIndex = root;
+		return data;
+	}
+
 	/**
 	 * Reads an edge list format with additional attributes. Tree (hierachy
 	 * format): "nodeId;parentId;name;weight";
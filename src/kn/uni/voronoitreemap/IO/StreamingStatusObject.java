@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.IO;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import kn.uni.voronoitreemap.interfaces.StatusObject;
+import kn.uni.voronoitreemap.j2d.PolygonSimple;
+import kn.uni.voronoitreemap.j2d.Site;
+import kn.uni.voronoitreemap.treemap.VoroNode;
+import kn.uni.voronoitreemap.treemap.VoronoiTreemap;
+
+/**
+ * Writes the same edge list as the {@link WriteStatusObject}, but each time a
+ * node is finished the lines of its children are passed to a background
+ * thread which writes them. The lines are in the order in which the nodes
+ * are finished. The queue between the computing threads and the writer is
+ * bounded, so a slow disk slows down the computation instead of filling the
+ * heap. When the computation is cancelled, the writer writes the lines queued
+ * so far and closes the file in the background.
+ * 
+ * @author Arlind Nocaj
+ *
+ */
+public class StreamingStatusObject implements StatusObject {
+
+	/** marks the end of the output in the queue **/
+	private static final String end = new String();
+
+	private String filename;
+	private VoronoiTreemap treemap;
+	private BlockingQueue<String> queue;
+	private Thread writerThread;
+	private volatile IOException error;
+	/** set when the end of the output is queued **/
+	private volatile boolean closed;
+	/** closes the output when the computation is cancelled **/
+	private Runnable cancelHook;
+
+	public StreamingStatusObject(String outputFile, VoronoiTreemap treemap) {
+		this(outputFile, treemap, 1024);
+	}
+
+	/**
+	 * @param outputFile
+	 *            name of the file without the extension .txt
+	 * @param treemap
+	 * @param queueSize
+	 *            number of finished nodes whose lines may wait for the
+	 *            writer
+	 */
+	public StreamingStatusObject(String outputFile, VoronoiTreemap treemap,
+			int queueSize) {
+		this.filename = outputFile + ".txt";
+		this.treemap = treemap;
+		this.queue = new ArrayBlockingQueue<String>(Math.max(1, queueSize));
+
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(filename));
+			String header = "nodeId;parentID;name;weight;hierarchyLevel;sitePosX;sitePosY;siteWeight;polygonPoints x1,y2,x2,y2\n";
+			writer.write(header);
+		} catch (IOException e) {
+			e.printStackTrace();
+			error = e;
+		}
+		final BufferedWriter output = writer;
+		writerThread = new Thread("StreamingStatusObject") {
+			@Override
+			public void run() {
+				write(output);
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+		// a cancelled computation never finishes
+		cancelHook = new Runnable() {
+			@Override
+			public void run() {
+				cancel();
+			}
+		};
+		treemap.addCancelHook(cancelHook);
+	}
+
+	private void write(BufferedWriter writer) {
+		int wrote = 0;
+		try {
+			while (true) {
+				String lines = queue.take();
+				if (lines == end)
+					break;
+				if (error == null) {
+					try {
+						writer.write(lines);
+						wrote++;
+					} catch (IOException e) {
+						e.printStackTrace();
+						error = e;
+					}
+				}
+				// a cancellation finds no room for the end in a full queue
+				if (closed && queue.isEmpty())
+					break;
+			}
+		} catch (InterruptedException e) {
+			return;
+		}
+		try {
+			if (writer != null)
+				writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.println("Wrote nodes with children # " + wrote);
+	}
+
+	@Override
+	public void finishedNode(int Node, int layer, int[] children,
+			PolygonSimple[] polygons) {
+		if (children == null || error != null || closed)
+			return;
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < children.length; i++) {
+			VoroNode voroNode = treemap.getNode(children[i]);
+			if (voroNode == null || voroNode.getParent() == null)
+				continue;
+			VoroNode parent = voroNode.getParent();
+			Site site = voroNode.getSite();
+			if (site == null) {
+				System.out.println("site null: " + voroNode.getName() + "\t level: " + voroNode.getHeight()
+						+ "\t parent: " + parent.getName());
+				continue;
+			}
+			builder.append(voroNode.getNodeID()).append(';').append(parent.getNodeID()).append(';')
+					.append(voroNode.name).append(';').append(voroNode.getWeight()).append(';')
+					.append(voroNode.getHeight()).append(';').append(site.x).append(';').append(site.y)
+					.append(';').append(site.getWeight()).append(';');
+
+			PolygonSimple polygon = (polygons != null) ? polygons[i] : null;
+			if (polygon != null) {
+				double[] xPoints = polygon.getXPoints();
+				double[] yPoints = polygon.getYPoints();
+
+				for (int j = 0; j < polygon.length; j++) {
+					if (j > 0)
+						builder.append(',');
+					builder.append(xPoints[j]).append(',').append(yPoints[j]);
+				}
+			} else
+				builder.append("0,0");
+			builder.append('\n');
+		}
+		if (builder.length() == 0)
+			return;
+		String lines = builder.toString();
+		try {
+			// the writer stops at the end of the output, lines of a node
+			// which finishes during a cancellation are dropped
+			while (!closed && !queue.offer(lines, 100, TimeUnit.MILLISECONDS))
+				;
+		} catch (InterruptedException e) {
+			// the computing thread is cancelled
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues the end of the output and waits until the writer has written all
+	 * lines and closed the file.
+	 */
+	@Override
+	public void finished() {
+		treemap.removeCancelHook(cancelHook);
+		boolean interrupted = false;
+		if (!closed) {
+			closed = true;
+			while (true) {
+				try {
+					queue.put(end);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		while (writerThread.isAlive()) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Queues the end of the output without waiting for the writer, the
+	 * cancelling thread may be shared by other computations.
+	 */
+	private void cancel() {
+		treemap.removeCancelHook(cancelHook);
+		closed = true;
+		queue.offer(end);
+	}
+
+	/**
+	 * @return the error which stopped the output or null
+	 */
+	public IOException getError() {
+		return error;
+	}
+}
@@ -70,7 +70,7 @@ public class WriteStatusObject implements StatusObject {
 		if (treemap == null)
 			return;
 		int wrote = 0;
-		for (VoroNode voroNode : treemap.getIdToNode().values()) {
+		for (VoroNode voroNode : treemap.getNodes()) {
 
 			if (voroNode.getParent() == null)
 				continue;
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+import kn.uni.voronoitreemap.diagram.PowerDiagram;
+
+/**
+ * Reusable state for the iteration of a {@link VoronoiCore}. The power diagram
+ * and the site arrays are reset between iterations instead of being
+ * reallocated. A workspace must only be used by one thread at a time, e.g. each
+ * VoroCPU owns one and hands it to every core it computes.
+ *
+ * @author Arlind Nocaj
+ */
+public class CoreWorkspace {
+
+	/** power diagram which is reused for every iteration **/
+	PowerDiagram diagram = new PowerDiagram();
+
+	/** site arrays the optimization loops work on **/
+	SiteBuffer buffer = new SiteBuffer();
+
+	/** spatial index over the site positions **/
+	SiteGrid grid = new SiteGrid();
+
+	/** local updates of the power diagram **/
+	IncrementalDiagram incremental = new IncrementalDiagram();
+
+	private VoroOptimizer prototype;
+	private VoroOptimizer optimizer;
+
+	/**
+	 * Returns the instance of the given optimizer which is reused by all cores
+	 * of this workspace.
+	 * 
+	 * @param prototype
+	 *            optimizer of the settings
+	 * @return
+	 */
+	VoroOptimizer getOptimizer(VoroOptimizer prototype) {
+		if (this.prototype != prototype) {
+			this.prototype = prototype;
+			this.optimizer = prototype.newInstance();
+		}
+		return optimizer;
+	}
+}
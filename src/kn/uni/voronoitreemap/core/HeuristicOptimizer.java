@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Default optimizer: moves each site to the centroid of its cell and increases
+ * or decreases its weight by a global step depending on the area error.
+ * 
+ * @author Arlind Nocaj
+ */
+public class HeuristicOptimizer implements VoroOptimizer {
+
+	@Override
+	public void iterate(VoronoiCore core, SiteBuffer sites) {
+		core.moveSites(sites);
+		core.checkPointsInPolygon(sites);
+
+		// adapt weights
+		core.adaptWeightsSimple(sites);
+		core.voroDiagram();
+	}
+
+	@Override
+	public VoroOptimizer newInstance() {
+		return this;
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import kn.uni.voronoitreemap.debug.ImageFrame;
+
+/**
+ * Shows the iterations of a core in an {@link ImageFrame}, for debugging only.
+ * 
+ * @author Arlind Nocaj
+ */
+public class ImageFrameListener implements VoroCoreListener {
+
+	private ImageFrame frame;
+	private Graphics2D graphics;
+
+	public ImageFrameListener() {
+		BufferedImage image = new BufferedImage(2000, 2000,
+				BufferedImage.TYPE_INT_RGB);
+
+		frame = new ImageFrame(image);
+		frame.setVisible(true);
+		frame.setBounds(20, 20, 1600, 800);
+		graphics = image.createGraphics();
+	}
+
+	@Override
+	public void started(VoronoiCore core) {
+		frame.setVoroCore(core);
+	}
+
+	@Override
+	public void iterated(VoronoiCore core) {
+		frame.repaintWithWait(4);
+	}
+
+	@Override
+	public void finished(VoronoiCore core) {
+	}
+
+	/**
+	 * Draws the current state of the core into the frame.
+	 * 
+	 * @param core
+	 */
+	public void drawCurrentState(VoronoiCore core) {
+		core.drawState(graphics, false);
+		frame.repaint();
+	}
+}
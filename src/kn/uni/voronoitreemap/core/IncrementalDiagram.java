@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+import java.util.Arrays;
+
+import kn.uni.voronoitreemap.j2d.PolygonSimple;
+
+/**
+ * Local update of the power diagram of a {@link SiteBuffer}. Only the cells of
+ * sites whose position or weight changed since the last diagram and the cells
+ * of their neighbours are recomputed, each by clipping the clipping polygon
+ * with the power bisectors to the sites within two neighbourhood steps of the
+ * previous diagram. The update is rejected if the cells no longer cover the
+ * clipping polygon exactly or if the clipping polygon is not convex, the core
+ * then computes the complete diagram.
+ *
+ * @author Arlind Nocaj
+ */
+public class IncrementalDiagram {
+
+	/** at most this fraction of the sites may change for a local update **/
+	private static final double maxChangedFraction = 0.25;
+	/** number of local updates after which the complete diagram is computed **/
+	private static final int refreshInterval = 25;
+	/** relative deviation of the summed cell areas from the clipping area **/
+	private static final double areaTolerance = 1E-11;
+
+	private boolean valid = false;
+	private int updates;
+	private int size;
+
+	/** neighbours of the current cells in the layout of the SiteBuffer **/
+	private int[] start = new int[1];
+	private int[] adjacent = new int[0];
+	private double[] coupling = new double[0];
+	private int[] nextStart = new int[1];
+	private int[] nextAdjacent = new int[0];
+	private double[] nextCoupling = new double[0];
+
+	private int[] affected = new int[0];
+	/** position of an affected site in the array affected **/
+	private int[] localIndex = new int[0];
+	private int[] mark = new int[0];
+	private int stamp;
+
+	/** neighbours of the recomputed cells, in the order of affected **/
+	private int[] localStart = new int[1];
+	private int[] localAdjacent = new int[0];
+	private double[] localCoupling = new double[0];
+	private int[] candidates = new int[0];
+
+	/** polygons set by the local updates, they are refilled by the next one **/
+	private PolygonSimple[] polygons = new PolygonSimple[0];
+
+	/** vertices and edge sources of the cell which is clipped **/
+	private double[] px = new double[0];
+	private double[] py = new double[0];
+	private int[] source = new int[0];
+	private double[] qx = new double[0];
+	private double[] qy = new double[0];
+	private int[] nextSource = new int[0];
+
+	/**
+	 * Forgets the previous diagram, the next update is rejected.
+	 */
+	public void reset() {
+		valid = false;
+		Arrays.fill(polygons, null);
+	}
+
+	/**
+	 * Remembers the complete diagram which was just computed for the sites.
+	 *
+	 * @param sites
+	 *            sites whose cells have been read
+	 */
+	public void record(SiteBuffer sites) {
+		sites.readNeighbours();
+		size = sites.size;
+		ensureCapacity(size);
+		int m = sites.neighbourStart[size];
+		if (adjacent.length < m) {
+			adjacent = new int[m];
+			coupling = new double[m];
+		}
+		System.arraycopy(sites.neighbourStart, 0, start, 0, size + 1);
+		System.arraycopy(sites.neighbours, 0, adjacent, 0, m);
+		System.arraycopy(sites.coupling, 0, coupling, 0, m);
+		Arrays.fill(polygons, null);
+		updates = 0;
+		// a site without cell has no neighbours to tell where it reappears
+		valid = true;
+		for (int i = 0; i < size; i++)
+			if (sites.area[i] <= 0.0)
+				valid = false;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (start.length < capacity + 1) {
+			start = new int[capacity + 1];
+			nextStart = new int[capacity + 1];
+			localStart = new int[capacity + 1];
+		}
+		if (affected.length >= capacity)
+			return;
+		affected = new int[capacity];
+		localIndex = new int[capacity];
+		mark = new int[capacity];
+		polygons = new PolygonSimple[capacity];
+		stamp = 0;
+	}
+
+	/**
+	 * Updates the cells of the sites which changed since the last diagram.
+	 * Only the recomputed cells are read again, the work does not depend on
+	 * the number of sites. A rejected update invalidates the diagram until
+	 * the next call of {@link #record(SiteBuffer)}.
+	 *
+	 * @param sites
+	 *            sites whose positions and weights have been stored into the
+	 *            site objects
+	 * @param changedSites
+	 *            indices of the sites whose position or weight changed since
+	 *            the last diagram, all other sites have to be unchanged
+	 * @param changedCount
+	 *            number of indices in changedSites
+	 * @param clipPolygon
+	 * @param clipArea
+	 *            area of the clipping polygon
+	 * @return false if the complete diagram has to be computed, the cells of
+	 *         the sites may be partially updated in that case
+	 */
+	public boolean update(SiteBuffer sites, int[] changedSites,
+			int changedCount, PolygonSimple clipPolygon, double clipArea) {
+		if (changedCount == 0 && valid && sites.size == size)
+			return true;
+		if (!valid || sites.size != size || updates >= refreshInterval
+				|| changedCount > size * maxChangedFraction
+				|| !isConvex(clipPolygon)) {
+			valid = false;
+			return false;
+		}
+
+		// a changed site can reach the cells of the neighbours of its
+		// neighbours, these cells are recomputed
+		int affectedCount = 0;
+		nextStamp();
+		for (int c = 0; c < changedCount; c++) {
+			int i = changedSites[c];
+			if (mark[i] != stamp) {
+				mark[i] = stamp;
+				affected[affectedCount++] = i;
+			}
+		}
+		int levelStart = 0;
+		for (int step = 0; step < 2; step++) {
+			int levelEnd = affectedCount;
+			for (int a = levelStart; a < levelEnd; a++) {
+				int i = affected[a];
+				for (int k = start[i]; k < start[i + 1]; k++) {
+					int j = adjacent[k];
+					if (mark[j] != stamp) {
+						mark[j] = stamp;
+						affected[affectedCount++] = j;
+					}
+				}
+			}
+			levelStart = levelEnd;
+		}
+
+		int m = 0;
+		for (int a = 0; a < affectedCount; a++) {
+			localStart[a] = m;
+			int i = affected[a];
+			int length = clip(sites, i, collectCandidates(i), clipPolygon);
+			if (length == 0) {
+				valid = false;
+				return false;
+			}
+			m = appendNeighbours(sites, i, length, m);
+		}
+		localStart[affectedCount] = m;
+
+		sites.readCells(affected, affectedCount, clipArea);
+		if (Math.abs(sites.areaSum - clipArea) > clipArea * areaTolerance) {
+			valid = false;
+			return false;
+		}
+
+		mergeNeighbours(affectedCount);
+		publishNeighbours(sites);
+		updates++;
+		return true;
+	}
+
+	/**
+	 * Returns true if the polygon is convex, the clipping of a cell by half
+	 * planes only yields the cell for convex clipping polygons.
+	 */
+	static boolean isConvex(PolygonSimple polygon) {
+		double[] x = polygon.getXPoints();
+		double[] y = polygon.getYPoints();
+		int length = polygon.length;
+		int sign = 0;
+		int directionChanges = 0;
+		int lastDirection = 0;
+		for (int k = 0; k < length; k++) {
+			int l = (k + 1 == length) ? 0 : k + 1;
+			int n = (l + 1 == length) ? 0 : l + 1;
+			double cross = (x[l] - x[k]) * (y[n] - y[l]) - (y[l] - y[k])
+					* (x[n] - x[l]);
+			int turn = (cross > 0) ? 1 : ((cross < 0) ? -1 : 0);
+			if (turn != 0) {
+				if (sign == 0)
+					sign = turn;
+				else if (sign != turn)
+					return false;
+			}
+			// a polygon winding more than once turns consistently as well
+			double dx = x[l] - x[k];
+			int direction = (dx > 0) ? 1 : ((dx < 0) ? -1 : 0);
+			if (direction != 0) {
+				if (lastDirection != 0 && direction != lastDirection)
+					directionChanges++;
+				lastDirection = direction;
+			}
+		}
+		return directionChanges <= 2;
+	}
+
+	private void nextStamp() {
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(mark, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * Collects the sites within two neighbourhood steps of i in the previous
+	 * diagram.
+	 */
+	private int collectCandidates(int i) {
+		nextStamp();
+		mark[i] = stamp;
+		int count = 0;
+		for (int k = start[i]; k < start[i + 1]; k++) {
+			int j = adjacent[k];
+			for (int l = start[j]; l < start[j + 1]; l++) {
+				int q = adjacent[l];
+				if (mark[q] != stamp) {
+					mark[q] = stamp;
+					count = addCandidate(q, count);
+				}
+			}
+			if (mark[j] != stamp) {
+				mark[j] = stamp;
+				count = addCandidate(j, count);
+			}
+		}
+		return count;
+	}
+
+	private int addCandidate(int j, int count) {
+		if (count == candidates.length)
+			candidates = Arrays.copyOf(candidates, Math.max(16, 2 * count));
+		candidates[count] = j;
+		return count + 1;
+	}
+
+	/**
+	 * Clips the clipping polygon with the power bisectors of i and its
+	 * candidates and sets the result as polygon of the site of i. This is the
+	 * Sutherland-Hodgman algorithm, which requires a convex clipping polygon.
+	 * The polygon set by a previous local update of the cell is refilled.
+	 *
+	 * @return number of vertices of the cell, 0 if the cell is empty
+	 */
+	private int clip(SiteBuffer sites, int i, int candidateCount,
+			PolygonSimple clipPolygon) {
+		int length = clipPolygon.length;
+		ensureVertexCapacity(length + 1);
+		System.arraycopy(clipPolygon.getXPoints(), 0, px, 0, length);
+		System.arraycopy(clipPolygon.getYPoints(), 0, py, 0, length);
+		for (int k = 0; k < length; k++)
+			source[k] = -1;
+
+		double xi = sites.x[i];
+		double yi = sites.y[i];
+		double normI = xi * xi + yi * yi - sites.weight[i];
+		for (int c = 0; c < candidateCount && length > 0; c++) {
+			int j = candidates[c];
+			double xj = sites.x[j];
+			double yj = sites.y[j];
+			// the cell of i is a*x+b*y <= d
+			double a = 2.0 * (xj - xi);
+			double b = 2.0 * (yj - yi);
+			double d = xj * xj + yj * yj - sites.weight[j] - normI;
+			ensureVertexCapacity(length + 1);
+			int n = 0;
+			for (int k = 0; k < length; k++) {
+				int l = (k + 1 == length) ? 0 : k + 1;
+				double fk = a * px[k] + b * py[k] - d;
+				double fl = a * px[l] + b * py[l] - d;
+				if (fk <= 0) {
+					qx[n] = px[k];
+					qy[n] = py[k];
+					nextSource[n++] = source[k];
+				}
+				if ((fk < 0 && fl > 0) || (fk > 0 && fl < 0)) {
+					double t = fk / (fk - fl);
+					qx[n] = px[k] + t * (px[l] - px[k]);
+					qy[n] = py[k] + t * (py[l] - py[k]);
+					// leaving the half plane continues on the bisector of j
+					nextSource[n++] = (fk < 0) ? j : source[k];
+				}
+			}
+			swapVertices();
+			length = n;
+		}
+		if (length < 3)
+			return 0;
+
+		PolygonSimple poly = polygons[i];
+		if (poly == null || sites.sites[i].getPolygon() != poly) {
+			poly = new PolygonSimple();
+			polygons[i] = poly;
+		} else
+			poly.length = 0;
+		for (int k = 0; k < length; k++)
+			poly.add(px[k], py[k]);
+		sites.sites[i].setPolygon(poly);
+		return length;
+	}
+
+	/**
+	 * Appends the neighbours of the cell of i which was just clipped.
+	 */
+	private int appendNeighbours(SiteBuffer sites, int i, int vertices, int m) {
+		int first = m;
+		for (int k = 0; k < vertices; k++) {
+			int j = source[k];
+			if (j < 0)
+				continue;
+			int l = (k + 1 == vertices) ? 0 : k + 1;
+			double ex = px[l] - px[k];
+			double ey = py[l] - py[k];
+			double length = Math.sqrt(ex * ex + ey * ey);
+			if (length <= 0)
+				continue;
+			double dx = sites.x[j] - sites.x[i];
+			double dy = sites.y[j] - sites.y[i];
+			double value = length / (2.0 * Math.sqrt(dx * dx + dy * dy));
+
+			int existing = -1;
+			for (int e = first; e < m; e++)
+				if (localAdjacent[e] == j)
+					existing = e;
+			if (existing >= 0) {
+				localCoupling[existing] += value;
+				continue;
+			}
+			if (m == localAdjacent.length) {
+				localAdjacent = Arrays.copyOf(localAdjacent, Math.max(16, 2 * m));
+				localCoupling = Arrays.copyOf(localCoupling, localAdjacent.length);
+			}
+			localAdjacent[m] = j;
+			localCoupling[m] = value;
+			m++;
+		}
+		return m;
+	}
+
+	/**
+	 * Replaces the neighbours of the affected sites by the recomputed ones.
+	 */
+	private void mergeNeighbours(int affectedCount) {
+		nextStamp();
+		for (int a = 0; a < affectedCount; a++) {
+			mark[affected[a]] = stamp;
+			localIndex[affected[a]] = a;
+		}
+		int capacity = start[size] + localStart[affectedCount];
+		if (nextAdjacent.length < capacity) {
+			nextAdjacent = new int[capacity];
+			nextCoupling = new double[capacity];
+		}
+
+		int m = 0;
+		for (int i = 0; i < size; i++) {
+			nextStart[i] = m;
+			if (mark[i] == stamp) {
+				int a = localIndex[i];
+				int length = localStart[a + 1] - localStart[a];
+				System.arraycopy(localAdjacent, localStart[a], nextAdjacent, m, length);
+				System.arraycopy(localCoupling, localStart[a], nextCoupling, m, length);
+				m += length;
+			} else {
+				int length = start[i + 1] - start[i];
+				System.arraycopy(adjacent, start[i], nextAdjacent, m, length);
+				System.arraycopy(coupling, start[i], nextCoupling, m, length);
+				m += length;
+			}
+		}
+		nextStart[size] = m;
+
+		int[] s = start;
+		start = nextStart;
+		nextStart = s;
+		int[] n = adjacent;
+		adjacent = nextAdjacent;
+		nextAdjacent = n;
+		double[] c = coupling;
+		coupling = nextCoupling;
+		nextCoupling = c;
+	}
+
+	/**
+	 * Hands the neighbours of the updated diagram to the sites, they replace
+	 * the neighbours of the site objects which are not updated locally. The
+	 * buffer writes them into the site objects when it is released.
+	 */
+	private void publishNeighbours(SiteBuffer sites) {
+		int m = start[size];
+		if (sites.neighbourStart.length < size + 1)
+			sites.neighbourStart = new int[size + 1];
+		if (sites.neighbours.length < m) {
+			sites.neighbours = new int[m];
+			sites.coupling = new double[m];
+		}
+		System.arraycopy(start, 0, sites.neighbourStart, 0, size + 1);
+		System.arraycopy(adjacent, 0, sites.neighbours, 0, m);
+		System.arraycopy(coupling, 0, sites.coupling, 0, m);
+		sites.neighboursRead = true;
+		sites.localNeighbours = true;
+	}
+
+	private void ensureVertexCapacity(int capacity) {
+		if (px.length >= 2 * capacity)
+			return;
+		int length = Math.max(16, 4 * capacity);
+		px = Arrays.copyOf(px, length);
+		py = Arrays.copyOf(py, length);
+		source = Arrays.copyOf(source, length);
+		qx = Arrays.copyOf(qx, length);
+		qy = Arrays.copyOf(qy, length);
+		nextSource = Arrays.copyOf(nextSource, length);
+	}
+
+	private void swapVertices() {
+		double[] t = px;
+		px = qx;
+		qx = t;
+		t = py;
+		py = qy;
+		qy = t;
+		int[] s = source;
+		source = nextSource;
+		nextSource = s;
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Heuristic optimizer whose weight steps are accelerated by momentum. The
+ * weight change of a site is the heuristic step plus the previous change
+ * scaled by 1 - 1 / boostConvergence, so a boost of 1 equals the
+ * {@link HeuristicOptimizer}. The momentum of a site is dropped as soon as its
+ * heuristic step changes direction, which prevents oscillation around the
+ * wanted area.
+ * 
+ * @author Arlind Nocaj
+ */
+public class MomentumOptimizer implements VoroOptimizer {
+
+	private double[] velocity = new double[0];
+	private double[] lastWeight = new double[0];
+
+	@Override
+	public void iterate(VoronoiCore core, SiteBuffer sites) {
+		int size = sites.size;
+		if (velocity.length < size) {
+			velocity = new double[size];
+			lastWeight = new double[size];
+		}
+		if (core.getCurrentIteration() == 0) {
+			// new run, forget the momentum of the previous one
+			for (int i = 0; i < size; i++)
+				velocity[i] = 0;
+		}
+
+		core.moveSites(sites);
+		core.checkPointsInPolygon(sites);
+
+		double[] weight = sites.weight;
+		System.arraycopy(weight, 0, lastWeight, 0, size);
+		core.adaptWeightsSimple(sites);
+
+		double boost = core.getSettings().boostConvergence;
+		double momentum = (boost > 1.0) ? 1.0 - 1.0 / boost : 0.0;
+		for (int i = 0; i < size; i++) {
+			double step = weight[i] - lastWeight[i];
+			if (step * velocity[i] > 0)
+				velocity[i] = momentum * velocity[i] + step;
+			else
+				velocity[i] = step;
+			weight[i] = lastWeight[i] + velocity[i];
+		}
+		core.voroDiagram();
+	}
+
+	@Override
+	public VoroOptimizer newInstance() {
+		return new MomentumOptimizer();
+	}
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Weight adaption as semi-discrete optimal transport problem. The derivative
+ * of the cell areas with respect to the weights is a graph Laplacian with the
+ * coupling length(e_ij) / (2 * |p_i - p_j|) of neighbouring cells. A damped
+ * Newton step solves this system with a preconditioned conjugate gradient and
+ * halves the step until the area error decreases. The sites are moved to the
+ * centroids of their cells before each step.
+ *
+ * @author Arlind Nocaj
+ */
+public class NewtonOptimizer implements VoroOptimizer {
+
+	private static final int maxHalvings = 6;
+	private static final int maxSolverIterations = 200;
+	private static final double solverTolerance = 1E-10;
+
+	private double[] residual = new double[0];
+	private double[] direction = new double[0];
+	private double[] diagonal = new double[0];
+	private double[] cgResidual = new double[0];
+	private double[] cgSearch = new double[0];
+	private double[] cgProduct = new double[0];
+	private double[] savedWeight = new double[0];
+
+	private void ensureCapacity(int capacity) {
+		if (residual.length >= capacity)
+			return;
+		residual = new double[capacity];
+		direction = new double[capacity];
+		diagonal = new double[capacity];
+		cgResidual = new double[capacity];
+		cgSearch = new double[capacity];
+		cgProduct = new double[capacity];
+		savedWeight = new double[capacity];
+	}
+
+	@Override
+	public void iterate(VoronoiCore core, SiteBuffer sites) {
+		core.moveSites(sites);
+		core.checkPointsInPolygon(sites);
+
+		// the Newton step needs the cells of the moved sites
+		core.fixWeightsIfDominated(sites);
+		core.voroDiagram();
+		if (!adaptWeights(core, sites, core.getClipArea())) {
+			core.adaptWeightsSimple(sites);
+			core.voroDiagram();
+		}
+	}
+
+	@Override
+	public VoroOptimizer newInstance() {
+		return new NewtonOptimizer();
+	}
+
+	/**
+	 * Adapts the weights of the sites by a damped Newton step. The diagram of
+	 * the core is recomputed for each tried step size.
+	 *
+	 * @param core
+	 * @param sites
+	 *            sites whose cells match their current positions and weights
+	 * @param completeArea
+	 *            area of the clipping polygon
+	 * @return false if no step size decreased the area error, the weights are
+	 *         unchanged in that case
+	 */
+	boolean adaptWeights(VoronoiCore core, SiteBuffer sites, double completeArea) {
+		int size = sites.size;
+		ensureCapacity(size);
+		sites.readNeighbours();
+		int[] start = sites.neighbourStart;
+		int[] neighbours = sites.neighbours;
+		double[] coupling = sites.coupling;
+
+		double maxDiagonal = 0;
+		double averageDistance = 0;
+		for (int i = 0; i < size; i++) {
+			residual[i] = completeArea * sites.percentage[i] - sites.area[i];
+			double sum = 0;
+			for (int k = start[i]; k < start[i + 1]; k++) {
+				sum += coupling[k];
+				double dx = sites.x[neighbours[k]] - sites.x[i];
+				double dy = sites.y[neighbours[k]] - sites.y[i];
+				averageDistance += Math.sqrt(dx * dx + dy * dy);
+			}
+			diagonal[i] = sum;
+			maxDiagonal = Math.max(maxDiagonal, sum);
+		}
+		if (maxDiagonal <= 0.0)
+			return false;
+		averageDistance /= start[size];
+
+		// the Laplacian is singular for constant weight shifts
+		double regularization = maxDiagonal * 1E-9;
+		int emptyCells = 0;
+		for (int i = 0; i < size; i++) {
+			if (sites.area[i] <= 0.0) {
+				// cells without area are not part of the system
+				emptyCells++;
+				residual[i] = 0;
+				diagonal[i] = 1.0;
+			} else
+				diagonal[i] += regularization;
+		}
+
+		// residuals of the cells in the system have to sum up to zero
+		double mean = 0;
+		for (int i = 0; i < size; i++)
+			mean += residual[i];
+		mean /= (size - emptyCells);
+		for (int i = 0; i < size; i++)
+			if (sites.area[i] > 0.0)
+				residual[i] -= mean;
+
+		solve(sites);
+
+		// let empty cells grow like the heuristic step does
+		for (int i = 0; i < size; i++)
+			if (sites.area[i] <= 0.0)
+				direction[i] = averageDistance;
+
+		double error = sites.areaError;
+		double[] weight = sites.weight;
+		System.arraycopy(weight, 0, savedWeight, 0, size);
+		double alpha = 1.0;
+		for (int h = 0; h <= maxHalvings; h++) {
+			for (int i = 0; i < size; i++)
+				weight[i] = savedWeight[i] + alpha * direction[i];
+			core.voroDiagram();
+			if (sites.areaError < error && countEmptyCells(sites) <= emptyCells)
+				return true;
+			alpha *= 0.5;
+		}
+
+		System.arraycopy(savedWeight, 0, weight, 0, size);
+		core.voroDiagram();
+		return false;
+	}
+
+	private int countEmptyCells(SiteBuffer sites) {
+		int count = 0;
+		for (int i = 0; i < sites.size; i++)
+			if (sites.area[i] <= 0.0)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Solves (L + regularization * I) * direction = residual with a Jacobi
+	 * preconditioned conjugate gradient.
+	 */
+	private void solve(SiteBuffer sites) {
+		int size = sites.size;
+		double rz = 0;
+		double norm = 0;
+		for (int i = 0; i < size; i++) {
+			direction[i] = 0;
+			cgResidual[i] = residual[i];
+			cgSearch[i] = cgResidual[i] / diagonal[i];
+			rz += cgResidual[i] * cgSearch[i];
+			norm += residual[i] * residual[i];
+		}
+		double tolerance = norm * solverTolerance * solverTolerance;
+		int iterations = Math.min(size, maxSolverIterations);
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			multiply(sites, cgSearch, cgProduct);
+			double pAp = 0;
+			for (int i = 0; i < size; i++)
+				pAp += cgSearch[i] * cgProduct[i];
+			if (pAp <= 0.0)
+				break;
+			double step = rz / pAp;
+			double rr = 0;
+			double rzNew = 0;
+			for (int i = 0; i < size; i++) {
+				direction[i] += step * cgSearch[i];
+				cgResidual[i] -= step * cgProduct[i];
+				rr += cgResidual[i] * cgResidual[i];
+				rzNew += cgResidual[i] * cgResidual[i] / diagonal[i];
+			}
+			if (rr <= tolerance)
+				break;
+			double beta = rzNew / rz;
+			rz = rzNew;
+			for (int i = 0; i < size; i++)
+				cgSearch[i] = cgResidual[i] / diagonal[i] + beta * cgSearch[i];
+		}
+	}
+
+	/**
+	 * result = (L + regularization * I) * vector, the regularization is part of
+	 * the diagonal.
+	 */
+	private void multiply(SiteBuffer sites, double[] vector, double[] result) {
+		int[] start = sites.neighbourStart;
+		int[] neighbours = sites.neighbours;
+		double[] coupling = sites.coupling;
+		for (int i = 0; i < sites.size; i++) {
+			double sum = diagonal[i] * vector[i];
+			for (int k = start[i]; k < start[i + 1]; k++)
+				sum -= coupling[k] * vector[neighbours[k]];
+			result[i] = sum;
+		}
+	}
+}
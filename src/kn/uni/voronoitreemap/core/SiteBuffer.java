@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import kn.uni.voronoitreemap.datastructure.OpenList;
+import kn.uni.voronoitreemap.j2d.PolygonSimple;
+import kn.uni.voronoitreemap.j2d.Site;
+
+/**
+ * Struct-of-arrays representation of the sites of a {@link VoronoiCore}. The
+ * optimization loops work on these parallel arrays, the {@link Site} objects
+ * are only updated when the power diagram is computed, since the diagram
+ * consumes them.
+ *
+ * @author Arlind Nocaj
+ */
+public class SiteBuffer {
+
+	/**
+	 * maximal distance of a polygon vertex to a bisector to count as part of
+	 * it, the core works in coordinates scaled to a width of 500
+	 **/
+	private static final double edgeTolerance = 1E-6;
+
+	int size;
+	Site[] sites = new Site[0];
+
+	double[] x = new double[0];
+	double[] y = new double[0];
+	double[] weight = new double[0];
+	double[] percentage = new double[0];
+
+	/** area of the current cell, 0 if the site has no cell **/
+	double[] area = new double[0];
+	/** centroid of the current cell, NaN if the site has no cell **/
+	double[] centroidX = new double[0];
+	double[] centroidY = new double[0];
+	/** relative area error of the current cell **/
+	double[] error = new double[0];
+
+	/** number of iterations the cell has been converged in a row **/
+	int[] stable = new int[0];
+	/** frozen sites are neither moved nor re-weighted **/
+	boolean[] frozen = new boolean[0];
+
+	/**
+	 * neighbours of the current diagram in compressed form, the neighbours of
+	 * site i are neighbours[neighbourStart[i]] ... neighbours[neighbourStart[i+1]-1]
+	 **/
+	int[] neighbourStart = new int[1];
+	int[] neighbours = new int[0];
+	/** length of the shared cell edge divided by twice the site distance **/
+	double[] coupling = new double[0];
+	/** true if the neighbours belong to the current cells **/
+	boolean neighboursRead = false;
+	/**
+	 * true if the neighbours were set by a local update, the neighbour lists
+	 * of the site objects belong to an older diagram then
+	 **/
+	boolean localNeighbours = false;
+
+	/**
+	 * index of each site object in the arrays, open addressing on the
+	 * identity hash, built once per {@link #load(OpenList)}
+	 **/
+	private Site[] indexKeys = new Site[0];
+	private int[] indexValues = new int[0];
+	private boolean indexed = false;
+
+	/**
+	 * sites whose position or weight was written into the site object by the
+	 * last {@link #store()}
+	 **/
+	int[] changed = new int[0];
+	int changedCount;
+
+	/** summed area of all cells **/
+	double areaSum;
+	/** summed absolute area error of all cells **/
+	double absoluteErrorSum;
+	/** area error of all cells, computed by {@link #readCells(double)} **/
+	double areaError = 1.0;
+	/** maximal relative area error of a cell **/
+	double maxError;
+	/** maximal absolute area error of a cell **/
+	double maxAbsoluteError;
+
+	private void ensureCapacity(int capacity) {
+		if (x.length >= capacity)
+			return;
+		sites = new Site[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		weight = new double[capacity];
+		percentage = new double[capacity];
+		area = new double[capacity];
+		centroidX = new double[capacity];
+		centroidY = new double[capacity];
+		error = new double[capacity];
+		stable = new int[capacity];
+		frozen = new boolean[capacity];
+		changed = new int[capacity];
+	}
+
+	/**
+	 * Copies position, weight and percentage of the given sites into the
+	 * arrays.
+	 *
+	 * @param list
+	 */
+	public void load(OpenList list) {
+		ensureCapacity(list.size);
+		size = list.size;
+		indexed = false;
+		neighboursRead = false;
+		localNeighbours = false;
+		for (int i = 0; i < size; i++) {
+			Site s = list.array[i];
+			sites[i] = s;
+			x[i] = s.x;
+			y[i] = s.y;
+			weight[i] = s.getWeight();
+			percentage[i] = s.getPercentage();
+			stable[i] = 0;
+			frozen[i] = false;
+		}
+	}
+
+	/**
+	 * Writes position and weight back into the site objects and collects the
+	 * sites which differed from their site object in {@link #changed}.
+	 */
+	public void store() {
+		changedCount = 0;
+		for (int i = 0; i < size; i++) {
+			Site s = sites[i];
+			if (s.x == x[i] && s.y == y[i] && s.getWeight() == weight[i])
+				continue;
+			s.setXY(x[i], y[i]);
+			s.setWeight(weight[i]);
+			changed[changedCount++] = i;
+		}
+	}
+
+	/**
+	 * Reads area and centroid of the cells computed for the site objects and
+	 * computes the area errors with respect to the given area of the clipping
+	 * polygon. Each polygon is walked once.
+	 * 
+	 * @param completeArea
+	 *            area of the clipping polygon
+	 */
+	public void readCells(double completeArea) {
+		double errorArea = 0;
+		double errorMax = 0;
+		double absoluteMax = 0;
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			double diff = readCell(i, completeArea);
+			errorArea += diff;
+			errorMax = Math.max(errorMax, error[i]);
+			absoluteMax = Math.max(absoluteMax, diff);
+			sum += area[i];
+		}
+		areaSum = sum;
+		absoluteErrorSum = errorArea;
+		areaError = errorArea / (completeArea * 2.0);
+		maxError = errorMax;
+		maxAbsoluteError = absoluteMax;
+		neighboursRead = false;
+		localNeighbours = false;
+	}
+
+	/**
+	 * Reads the cells of the given sites only and updates the area errors, the
+	 * cells of all other sites have to be unchanged since they were read.
+	 * 
+	 * @param indices
+	 *            sites whose cells changed
+	 * @param count
+	 *            number of sites in indices
+	 * @param completeArea
+	 *            area of the clipping polygon
+	 */
+	public void readCells(int[] indices, int count, double completeArea) {
+		boolean rescan = false;
+		for (int c = 0; c < count; c++) {
+			int i = indices[c];
+			double oldDiff = Math.abs(completeArea * percentage[i] - area[i]);
+			double oldError = error[i];
+			areaSum -= area[i];
+			double diff = readCell(i, completeArea);
+			areaSum += area[i];
+			absoluteErrorSum += diff - oldDiff;
+			if (error[i] >= maxError)
+				maxError = error[i];
+			else if (oldError >= maxError)
+				rescan = true;
+			if (diff >= maxAbsoluteError)
+				maxAbsoluteError = diff;
+			else if (oldDiff >= maxAbsoluteError)
+				rescan = true;
+		}
+		if (rescan) {
+			// a cell with the maximal error improved, the maxima may drop
+			double errorMax = 0;
+			double absoluteMax = 0;
+			for (int i = 0; i < size; i++) {
+				errorMax = Math.max(errorMax, error[i]);
+				absoluteMax = Math.max(absoluteMax,
+						Math.abs(completeArea * percentage[i] - area[i]));
+			}
+			maxError = errorMax;
+			maxAbsoluteError = absoluteMax;
+		}
+		areaError = absoluteErrorSum / (completeArea * 2.0);
+		neighboursRead = false;
+	}
+
+	/**
+	 * Reads area, centroid and relative error of the cell of i.
+	 * 
+	 * @return absolute area error of the cell
+	 */
+	private double readCell(int i, double completeArea) {
+		PolygonSimple poly = sites[i].getPolygon();
+		double wantedArea = completeArea * percentage[i];
+		if (poly == null) {
+			area[i] = 0.0;
+			centroidX[i] = Double.NaN;
+			centroidY[i] = Double.NaN;
+			error[i] = 1.0;
+			return wantedArea;
+		}
+		double[] px = poly.getXPoints();
+		double[] py = poly.getYPoints();
+		int length = poly.length;
+		double a = 0;
+		double cx = 0;
+		double cy = 0;
+		for (int k = 0; k < length; k++) {
+			int l = (k + 1 == length) ? 0 : k + 1;
+			double cross = px[k] * py[l] - px[l] * py[k];
+			a += cross;
+			cx += (px[k] + px[l]) * cross;
+			cy += (py[k] + py[l]) * cross;
+		}
+		area[i] = Math.abs(a * 0.5);
+		if (a == 0.0) {
+			centroidX[i] = Double.NaN;
+			centroidY[i] = Double.NaN;
+		} else {
+			a *= 3.0;
+			centroidX[i] = cx / a;
+			centroidY[i] = cy / a;
+		}
+		double diff = Math.abs(wantedArea - area[i]);
+		error[i] = diff / wantedArea;
+		return diff;
+	}
+
+	/**
+	 * Reads the neighbours of each cell together with the length of the edge
+	 * shared with each neighbour. Has to be called before the positions are
+	 * changed, since the edges are identified by the power bisector of the
+	 * current positions and weights. The neighbours are read only once per
+	 * diagram.
+	 */
+	public void readNeighbours() {
+		if (neighboursRead)
+			return;
+		if (!indexed)
+			indexSites();
+		if (neighbourStart.length < size + 1)
+			neighbourStart = new int[size + 1];
+
+		int m = 0;
+		for (int i = 0; i < size; i++) {
+			neighbourStart[i] = m;
+			ArrayList<Site> list = sites[i].getNeighbours();
+			PolygonSimple poly = sites[i].getPolygon();
+			if (list == null || poly == null)
+				continue;
+			for (int k = 0; k < list.size(); k++) {
+				int j = indexOf(list.get(k));
+				if (j < 0)
+					continue;
+				double length = sharedEdgeLength(poly, i, j);
+				if (length <= 0)
+					continue;
+				if (m == neighbours.length) {
+					neighbours = Arrays.copyOf(neighbours, Math.max(16, 2 * m));
+					coupling = Arrays.copyOf(coupling, neighbours.length);
+				}
+				double dx = x[j] - x[i];
+				double dy = y[j] - y[i];
+				neighbours[m] = j;
+				coupling[m] = length / (2.0 * Math.sqrt(dx * dx + dy * dy));
+				m++;
+			}
+		}
+		neighbourStart[size] = m;
+		neighboursRead = true;
+	}
+
+	private void indexSites() {
+		int capacity = Integer.highestOneBit(Math.max(4, 2 * size) - 1) << 1;
+		if (indexKeys.length < capacity) {
+			indexKeys = new Site[capacity];
+			indexValues = new int[capacity];
+		} else
+			Arrays.fill(indexKeys, null);
+		int mask = indexKeys.length - 1;
+		for (int i = 0; i < size; i++) {
+			int h = hash(sites[i]) & mask;
+			while (indexKeys[h] != null && indexKeys[h] != sites[i])
+				h = (h + 1) & mask;
+			indexKeys[h] = sites[i];
+			indexValues[h] = i;
+		}
+		indexed = true;
+	}
+
+	/**
+	 * Returns the index of the site object, -1 if it is not in the buffer.
+	 */
+	private int indexOf(Site site) {
+		int mask = indexKeys.length - 1;
+		int h = hash(site) & mask;
+		Site key;
+		while ((key = indexKeys[h]) != null) {
+			if (key == site)
+				return indexValues[h];
+			h = (h + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static int hash(Site site) {
+		int h = System.identityHashCode(site);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Length of the edges of the cell of i which lie on the power bisector of i
+	 * and j.
+	 */
+	private double sharedEdgeLength(PolygonSimple poly, int i, int j) {
+		double dx = x[j] - x[i];
+		double dy = y[j] - y[i];
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		if (distance == 0.0)
+			return 0;
+		// signed distance of a point to the bisector is a*px+b*py+c
+		double a = dx / distance;
+		double b = dy / distance;
+		double c = (x[i] * x[i] + y[i] * y[i] - x[j] * x[j] - y[j] * y[j]
+				- weight[i] + weight[j])
+				/ (2.0 * distance);
+
+		double[] px = poly.getXPoints();
+		double[] py = poly.getYPoints();
+		int length = poly.length;
+		double sum = 0;
+		for (int k = 0; k < length; k++) {
+			int l = (k + 1 == length) ? 0 : k + 1;
+			if (Math.abs(a * px[k] + b * py[k] + c) < edgeTolerance
+					&& Math.abs(a * px[l] + b * py[l] + c) < edgeTolerance) {
+				double ex = px[l] - px[k];
+				double ey = py[l] - py[k];
+				sum += Math.sqrt(ex * ex + ey * ey);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Freezes the sites whose cells have been converged for the given number
+	 * of iterations. Sites are woken again when their own cell or a
+	 * neighbouring cell is not converged.
+	 * 
+	 * @param freezeAfter
+	 *            number of converged iterations before a site is frozen
+	 * @param epsilon
+	 *            relative area error up to which a cell counts as converged
+	 */
+	public void updateActiveSet(int freezeAfter, double epsilon) {
+		for (int i = 0; i < size; i++) {
+			if (error[i] < epsilon)
+				stable[i]++;
+			else
+				stable[i] = 0;
+		}
+
+		readNeighbours();
+		for (int i = 0; i < size; i++) {
+			if (error[i] >= epsilon)
+				for (int k = neighbourStart[i]; k < neighbourStart[i + 1]; k++)
+					stable[neighbours[k]] = 0;
+		}
+
+		for (int i = 0; i < size; i++)
+			frozen[i] = stable[i] >= freezeAfter;
+	}
+
+	/**
+	 * Returns true if the site should neither be moved nor re-weighted.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	public boolean isFrozen(int i) {
+		return frozen[i];
+	}
+
+	/**
+	 * Drops the references to the site objects so that the buffer can be
+	 * reused without retaining the previous core. Neighbours of a local update
+	 * are written into the neighbour lists of the site objects before.
+	 */
+	public void release() {
+		if (localNeighbours)
+			writeNeighbours();
+		localNeighbours = false;
+		for (int i = 0; i < size; i++)
+			sites[i] = null;
+		Arrays.fill(indexKeys, null);
+		indexed = false;
+		size = 0;
+	}
+
+	private void writeNeighbours() {
+		for (int i = 0; i < size; i++) {
+			ArrayList<Site> list = sites[i].getNeighbours();
+			if (list == null)
+				continue;
+			list.clear();
+			for (int k = neighbourStart[i]; k < neighbourStart[i + 1]; k++)
+				list.add(sites[neighbours[k]]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Site[] getSites() {
+		return sites;
+	}
+
+	public double[] getX() {
+		return x;
+	}
+
+	public double[] getY() {
+		return y;
+	}
+
+	public double[] getWeights() {
+		return weight;
+	}
+
+	public double[] getPercentages() {
+		return percentage;
+	}
+
+	public double[] getAreas() {
+		return area;
+	}
+
+	public double[] getCentroidX() {
+		return centroidX;
+	}
+
+	public double[] getCentroidY() {
+		return centroidY;
+	}
+
+	public double[] getErrors() {
+		return error;
+	}
+
+	public double getAreaError() {
+		return areaError;
+	}
+
+	public double getMaxError() {
+		return maxError;
+	}
+
+	public double getMaxAbsoluteError() {
+		return maxAbsoluteError;
+	}
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Uniform grid over the site positions of a {@link SiteBuffer}, used to find
+ * all sites within a given radius without comparing every pair of sites. The
+ * cells are stored in compressed form: the sites of cell c are
+ * items[cellStart[c]] ... items[cellStart[c+1]-1].
+ *
+ * @author Arlind Nocaj
+ */
+public class SiteGrid {
+
+	private double minX;
+	private double minY;
+	private double cellSize;
+	private int columns;
+	private int rows;
+
+	private int[] cellStart = new int[1];
+	private int[] items = new int[0];
+	private int[] itemCell = new int[0];
+
+	/**
+	 * Builds the grid for the first n positions, about one site per grid cell.
+	 *
+	 * @param x
+	 * @param y
+	 * @param n
+	 */
+	public void build(double[] x, double[] y, int n) {
+		minX = Double.MAX_VALUE;
+		minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		double extent = Math.max(maxX - minX, maxY - minY);
+		int side = Math.max(1, (int) Math.sqrt(n));
+		cellSize = (extent > 0) ? extent / side : 1.0;
+		columns = Math.min(side, (int) ((maxX - minX) / cellSize)) + 1;
+		rows = Math.min(side, (int) ((maxY - minY) / cellSize)) + 1;
+
+		int cells = columns * rows;
+		if (cellStart.length < cells + 1)
+			cellStart = new int[cells + 1];
+		if (items.length < n) {
+			items = new int[n];
+			itemCell = new int[n];
+		}
+		for (int c = 0; c <= cells; c++)
+			cellStart[c] = 0;
+
+		// counting sort of the sites into their cells
+		for (int i = 0; i < n; i++) {
+			int c = row(y[i]) * columns + column(x[i]);
+			itemCell[i] = c;
+			cellStart[c + 1]++;
+		}
+		for (int c = 0; c < cells; c++)
+			cellStart[c + 1] += cellStart[c];
+		for (int i = 0; i < n; i++) {
+			int c = itemCell[i];
+			items[cellStart[c]++] = i;
+		}
+		// shift back the start positions used as insert pointers
+		for (int c = cells; c > 0; c--)
+			cellStart[c] = cellStart[c - 1];
+		cellStart[0] = 0;
+	}
+
+	private int column(double x) {
+		int c = (int) ((x - minX) / cellSize);
+		return Math.max(0, Math.min(columns - 1, c));
+	}
+
+	private int row(double y) {
+		int r = (int) ((y - minY) / cellSize);
+		return Math.max(0, Math.min(rows - 1, r));
+	}
+
+	/**
+	 * Returns the first grid column which can contain a site within the given
+	 * radius around x, the grid has to be built before.
+	 */
+	int firstColumn(double x, double radius) {
+		return column(x - radius);
+	}
+
+	int lastColumn(double x, double radius) {
+		return column(x + radius);
+	}
+
+	int firstRow(double y, double radius) {
+		return row(y - radius);
+	}
+
+	int lastRow(double y, double radius) {
+		return row(y + radius);
+	}
+
+	int cellStart(int row, int column) {
+		return cellStart[row * columns + column];
+	}
+
+	int cellEnd(int row, int column) {
+		return cellStart[row * columns + column + 1];
+	}
+
+	int item(int index) {
+		return items[index];
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Receives the progress of a {@link VoronoiCore}, e.g. for debugging or for
+ * visualizing the iterations. The listener is set per core, a treemap hands
+ * its listener to the cores of all its nodes. The methods are called by the
+ * thread which computes the core.
+ * 
+ * @author Arlind Nocaj
+ */
+public interface VoroCoreListener {
+
+	/**
+	 * Called before the first iteration of the core.
+	 * 
+	 * @param core
+	 */
+	public void started(VoronoiCore core);
+
+	/**
+	 * Called after each iteration, the cells of the sites match their current
+	 * positions and weights.
+	 * 
+	 * @param core
+	 */
+	public void iterated(VoronoiCore core);
+
+	/**
+	 * Called after the last iteration, when the sites are transformed back
+	 * into the coordinates of the clipping polygon.
+	 * 
+	 * @param core
+	 */
+	public void finished(VoronoiCore core);
+}
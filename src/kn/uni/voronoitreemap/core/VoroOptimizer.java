@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.core;
+
+/**
+ * Strategy for one iteration of a {@link VoronoiCore}: how the sites are moved
+ * and how their weights are adapted. After {@link #iterate(VoronoiCore, SiteBuffer)}
+ * the diagram of the core has to match the sites, e.g. by calling
+ * {@link VoronoiCore#voroDiagram()} last.
+ * 
+ * The optimizer set in the {@link VoroSettings} is shared by all cores of a
+ * treemap and serves as prototype, each core iterates with its own instance
+ * created by {@link #newInstance()}.
+ * 
+ * @author Arlind Nocaj
+ */
+public interface VoroOptimizer {
+
+	/**
+	 * Performs one iteration.
+	 * 
+	 * @param core
+	 * @param sites
+	 *            arrays of the sites of the core, area and centroid match the
+	 *            current diagram
+	 */
+	public void iterate(VoronoiCore core, SiteBuffer sites);
+
+	/**
+	 * Returns an optimizer to be used by a single core at a time, stateless
+	 * optimizers may return themselves.
+	 * 
+	 * @return
+	 */
+	public VoroOptimizer newInstance();
+}
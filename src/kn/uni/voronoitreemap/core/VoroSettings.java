@@ -8,6 +8,29 @@ public class VoroSettings {
 	public int maxIterat=800;
 	public boolean cancelOnLocalError=true;
 	public double boostConvergence=1.0;		
+	/** strategy for moving the sites and adapting their weights **/
+	public VoroOptimizer optimizer=new HeuristicOptimizer();
+	/**
+	 * cells which are converged for this number of iterations are frozen, 0
+	 * disables freezing. Meant for the heuristic optimizers, the Newton step
+	 * adapts all weights at once and only stops moving frozen sites.
+	 **/
+	public int freezeAfter=0;
+	/**
+	 * recompute only the cells of changed sites and their neighbours while few
+	 * sites change, e.g. when most cells are frozen
+	 **/
+	public boolean incrementalDiagram=false;
+	/**
+	 * output pixels per unit of the treemap coordinates, 0 disables stopping
+	 * on the pixel error
+	 **/
+	public double pixelScale=0;
+	/**
+	 * a node is converged when the area error of each cell is below this
+	 * number of output pixels
+	 **/
+	public double pixelAreaTolerance=1.0;
 	
 	@Override
 	public VoroSettings clone(){
@@ -17,6 +40,11 @@ public class VoroSettings {
 		s.cancelMaxIterat=cancelMaxIterat;
 		s.errorThreshold=errorThreshold;
 		s.maxIterat=maxIterat;
+		s.optimizer=optimizer;
+		s.freezeAfter=freezeAfter;
+		s.incrementalDiagram=incrementalDiagram;
+		s.pixelScale=pixelScale;
+		s.pixelAreaTolerance=pixelAreaTolerance;
 		return s;
 	}
 }
@@ -17,10 +17,10 @@ import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import kn.uni.voronoitreemap.datastructure.OpenList;
-import kn.uni.voronoitreemap.debug.ImageFrame;
 import kn.uni.voronoitreemap.debuge.Colors;
 import kn.uni.voronoitreemap.diagram.PowerDiagram;
 import kn.uni.voronoitreemap.helper.InterpolColor;
@@ -35,17 +35,14 @@ import kn.uni.voronoitreemap.j2d.Site;
  * @author Arlind Nocaj
  */
 public class VoronoiCore {
-	public static boolean debugMode = false;
-	public static ImageFrame frame;
-	public static Graphics2D graphics;
-	/** If this mode is true, svg files are created in each iteration **/
-	
 	/**
 	 * core variables
 	 */
 
 	private boolean firstIteration = true;
 	private static final double nearlyOne = 0.999;
+	/** below this number of sites all pairs are compared directly **/
+	private static final int gridThreshold = 64;
 
 	/**
 	 * Settings for the Core
@@ -53,8 +50,24 @@ public class VoronoiCore {
 	VoroSettings settings = new VoroSettings();
 
 	protected PolygonSimple clipPolygon;
+	/** cached area of the clipping polygon **/
+	private double clipArea;
 	protected OpenList sites;
 	protected PowerDiagram diagram;
+	private CoreWorkspace workspace;
+	/** arrays of the sites, only set while {@link #doIterate()} is running **/
+	private SiteBuffer buffer;
+
+	/** iterations after which the core stops, 0 for no limit **/
+	private int iterationLimit;
+	/** time in milliseconds at which the core stops, 0 for no deadline **/
+	private long deadline;
+	/** the core stops as soon as this flag is set **/
+	private AtomicBoolean cancelFlag;
+	/** debugging and visualization hooks, null if none **/
+	private VoroCoreListener listener;
+	/** listener of the cores without one of their own, see {@link #setDebugMode()} **/
+	private static volatile VoroCoreListener defaultListener;
 	private int currentIteration;
 	protected double currentAreaError = 1.0;
 
@@ -68,15 +81,38 @@ public class VoronoiCore {
 		return sites;
 	}
 
+	/**
+	 * Shows the iterations of all cores without a listener of their own in a
+	 * frame.
+	 * 
+	 * @deprecated use {@link #setListener(VoroCoreListener)} with an
+	 *             {@link ImageFrameListener}
+	 */
+	@Deprecated
 	public static void setDebugMode() {
-		debugMode = true;
-		BufferedImage image = new BufferedImage(2000, 2000,
-				BufferedImage.TYPE_INT_RGB);
+		defaultListener = new ImageFrameListener();
+	}
+
+	/**
+	 * Sets the listener which is notified about the iterations of this core.
+	 * 
+	 * @param listener
+	 *            null for none
+	 */
+	public void setListener(VoroCoreListener listener) {
+		this.listener = listener;
+	}
 
-		frame = new ImageFrame(image);
-		frame.setVisible(true);
-		frame.setBounds(20, 20, 1600, 800);
-		graphics = image.createGraphics();
+	public VoroCoreListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the listener of this core, the one of {@link #setDebugMode()}
+	 *         if there is none
+	 */
+	private VoroCoreListener currentListener() {
+		return (listener != null) ? listener : defaultListener;
 	}
 
 	/**
@@ -87,6 +123,7 @@ public class VoronoiCore {
 	 */
 	public void setClipPolygon(PolygonSimple polygon) {
 		clipPolygon = polygon;
+		clipArea = polygon.getArea();
 		if (diagram != null)
 			diagram.setClipPoly(polygon);
 	}
@@ -115,7 +152,72 @@ public class VoronoiCore {
 	}
 
 	private void init() {
-		diagram = new PowerDiagram();
+		workspace = null;
+		diagram = null;
+	}
+
+	/**
+	 * Stops the iteration after the given number of iterations in addition to
+	 * the criteria of the settings, the current layout is kept.
+	 * 
+	 * @param iterations
+	 *            0 for no limit
+	 */
+	public void setIterationLimit(int iterations) {
+		this.iterationLimit = iterations;
+	}
+
+	/**
+	 * Stops the iteration at the given time in addition to the criteria of the
+	 * settings, the current layout is kept.
+	 * 
+	 * @param deadline
+	 *            time in milliseconds as given by System.currentTimeMillis(),
+	 *            0 for no deadline
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Sets a flag which stops the iteration as soon as it is set, e.g. when
+	 * the computation of the treemap is cancelled.
+	 * 
+	 * @param cancelFlag
+	 */
+	public void setCancelFlag(AtomicBoolean cancelFlag) {
+		this.cancelFlag = cancelFlag;
+	}
+
+	private boolean isCancelled() {
+		return cancelFlag != null && cancelFlag.get();
+	}
+
+	/**
+	 * Sets the workspace whose buffers are reused for all iterations of this
+	 * core. The workspace must not be used by another thread at the same time.
+	 * 
+	 * @param workspace
+	 */
+	public void setWorkspace(CoreWorkspace workspace) {
+		this.workspace = workspace;
+		this.diagram = workspace.diagram;
+	}
+
+	/**
+	 * Returns the workspace of this core, a private one is created if none was
+	 * set.
+	 * 
+	 * @return
+	 */
+	public CoreWorkspace getWorkspace() {
+		if (workspace == null)
+			setWorkspace(new CoreWorkspace());
+		return workspace;
 	}
 
 	public VoronoiCore() {
@@ -149,123 +251,95 @@ public class VoronoiCore {
 	}
 
 	public void iterateSimple() {
-		moveSites(sites);
-		checkPointsInPolygon(sites);
-		
-		// adapt weights
-		adaptWeightsSimple(sites);
-		voroDiagram();
-
-		if (frame != null)
-			frame.repaintWithWait(4);
-		currentAreaError = computeAreaError(sites);
-		currentErrorMax = computeMaxError(sites);
+		getWorkspace().getOptimizer(settings.optimizer).iterate(this, buffer);
+		if (settings.freezeAfter > 0)
+			buffer.updateActiveSet(settings.freezeAfter, settings.errorThreshold);
+
+		VoroCoreListener listener = currentListener();
+		if (listener != null)
+			listener.iterated(this);
+		currentAreaError = buffer.areaError;
+		currentErrorMax = buffer.maxError;
 		currentIteration++;
 	}
 
 	public boolean checkBadResult(OpenList sites) {
-		for (Site a : sites) {
-			if (a.getPolygon() == null)
+		for (int i = 0; i < sites.size; i++) {
+			if (sites.array[i].getPolygon() == null)
 				return true;
 		}
 
 		return false;
 	}
 
-	private void checkPointsInPolygon(OpenList sites) {
+	public void checkPointsInPolygon(SiteBuffer sites) {
 		boolean outside = false;
+		double[] x = sites.x;
+		double[] y = sites.y;
 		for (int i = 0; i < sites.size; i++) {
-			Site point = sites.array[i];
-			if (!clipPolygon.contains(point.x, point.y)) {
+			if (!clipPolygon.contains(x[i], y[i])) {
 				outside = true;
 				Point2D p = clipPolygon.getInnerPoint();
-				point.setXY(p.x, p.y);
+				x[i] = p.x;
+				y[i] = p.y;
 			}
 		}
 		if (outside)
 			fixWeightsIfDominated(sites);
 	}
 
-	private double computeAreaError(OpenList sites) {
-		double completeArea = clipPolygon.getArea();
-		double errorArea = 0;
-		for (int z = 0; z < sites.size; z++) {
-			Site point = sites.array[z];
-			PolygonSimple poly = point.getPolygon();
-			double currentArea = (poly == null) ? 0.0 : poly.getArea();
-			double wantedArea = completeArea * point.getPercentage();
-			errorArea += Math.abs(wantedArea - currentArea)
-					/ (completeArea * 2.0);
-		}
-		return errorArea;
-	}
-
-	private double computeMaxError(OpenList sites2) {
-		double completeArea = clipPolygon.getArea();
-		double maxError = 0;
-		for (int z = 0; z < sites.size; z++) {
-			Site point = sites.array[z];
-			PolygonSimple poly = point.getPolygon();
-			double currentArea = (poly == null) ? 0.0 : poly.getArea();
-			double wantedArea = completeArea * point.getPercentage();
-			double error = Math.abs(wantedArea - currentArea) / (wantedArea);
-			maxError = Math.max(error, maxError);
-		}
-		return maxError;
-	}
-
-	private void moveSites(OpenList sites) {
-		for (Site point : sites) {
-			PolygonSimple poly = point.getPolygon();
-			if (poly != null) {
-				Point2D centroid = poly.getCentroid();
-				double centroidX = centroid.getX();
-				double centroidY = centroid.getY();
-				if (clipPolygon.contains(centroidX, centroidY))
-					point.setXY(centroidX, centroidY);
+	public void moveSites(SiteBuffer sites) {
+		double[] centroidX = sites.centroidX;
+		double[] centroidY = sites.centroidY;
+		for (int i = 0; i < sites.size; i++) {
+			if (sites.frozen[i])
+				continue;
+			double cx = centroidX[i];
+			double cy = centroidY[i];
+			if (!Double.isNaN(cx) && clipPolygon.contains(cx, cy)) {
+				sites.x[i] = cx;
+				sites.y[i] = cy;
 			}
 		}
 	}
 
-	private void adjustWeightsToBePositive(OpenList sites) {
+	private void adjustWeightsToBePositive(SiteBuffer sites) {
+		double[] weights = sites.weight;
 		double minWeight = 0;
 		for (int z = 0; z < sites.size; z++) {
-			Site s = sites.array[z];
-			if (s.getWeight() < minWeight)
-				minWeight = s.getWeight();
+			if (weights[z] < minWeight)
+				minWeight = weights[z];
 		}
 
 		for (int z = 0; z < sites.size; z++) {
-			Site s = sites.array[z];
-			double w = s.getWeight();
+			double w = weights[z];
 			if (Double.isNaN(w))
 				w = 0.0001;
 			w -= minWeight;
 			if (w < 0.0001)
 				w = 0.0001;
-			s.setWeight(w);
+			weights[z] = w;
 		}
 
 	}
 
-	private void adaptWeightsSimple(OpenList sites) {
-		Site[] array = sites.array;
+	public void adaptWeightsSimple(SiteBuffer sites) {
 		int size = sites.size;
+		double[] weights = sites.weight;
 		double averageDistance = getGlobalAvgNeighbourDistance(sites);
-		double error = computeAreaError(sites);
+		double error = sites.areaError;
+		double completeArea = clipArea;
 		for (int z = 0; z < size; z++) {
-			Site point = array[z];
-			PolygonSimple poly = point.getPolygon();
-
-			double completeArea = clipPolygon.getArea();
-			double currentArea = (poly == null) ? 0.0 : poly.getArea();
-			double wantedArea = completeArea * point.getPercentage();
+			if (sites.frozen[z])
+				continue;
+			double currentArea = sites.area[z];
+			double wantedArea = completeArea * sites.percentage[z];
 
 			double increase = wantedArea / currentArea;
 			if (currentArea == 0.0)
 				increase = 2.0;
 
-			double weight = point.getWeight();
+			double weight = weights[z];
 
 			double step = 0;
 			double errorTransform = (-(error - 1) * (error - 1) + 1);
@@ -277,47 +351,97 @@ public class VoronoiCore {
 				weight -= step;
 			else if (increase > (1.0 + epsilon))
 				weight += step;
-			point.setWeight(weight);
+			weights[z] = weight;
 
 			// debug purpose
-			point.setLastIncrease(increase);
+			sites.sites[z].setLastIncrease(increase);
 
 		}
 	}
 
-	private void fixWeightsIfDominated(OpenList sites) {
+	public void fixWeightsIfDominated(SiteBuffer sites) {
+		int size = sites.size;
+		double[] x = sites.x;
+		double[] y = sites.y;
+		double[] weights = sites.weight;
 
-		for (Site s : sites) {
-			double weight = s.getWeight();
-			if (Double.isNaN(weight)) {
-				s.setWeight(0.00000000001);
+		for (int i = 0; i < size; i++) {
+			if (Double.isNaN(weights[i])) {
+				weights[i] = 0.00000000001;
 			}
 		}
 
-		for (Site s : sites) {
-			for (Site q : sites) {
-				if (s != q) {
-					double distance = s.distance(q) * nearlyOne;
-					if (Math.sqrt(s.getWeight()) >= distance) {
-						double weight = distance * distance;
-						q.setWeight(weight);
+		if (size < gridThreshold) {
+			for (int s = 0; s < size; s++) {
+				for (int q = 0; q < size; q++) {
+					if (s != q)
+						fixWeightIfDominated(sites, s, q);
+				}
+			}
+			return;
+		}
+
+		// only sites within the radius of s can be dominated by s
+		SiteGrid grid = getWorkspace().grid;
+		grid.build(x, y, size);
+		for (int s = 0; s < size; s++) {
+			double radius = Math.sqrt(weights[s]) / nearlyOne;
+			if (!(radius >= 0))
+				continue;
+			int lastRow = grid.lastRow(y[s], radius);
+			int lastColumn = grid.lastColumn(x[s], radius);
+			for (int r = grid.firstRow(y[s], radius); r <= lastRow; r++) {
+				for (int c = grid.firstColumn(x[s], radius); c <= lastColumn; c++) {
+					int end = grid.cellEnd(r, c);
+					for (int k = grid.cellStart(r, c); k < end; k++) {
+						int q = grid.item(k);
+						if (s != q)
+							fixWeightIfDominated(sites, s, q);
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Shrinks the weight of q if its cell would be dominated by s.
+	 */
+	private void fixWeightIfDominated(SiteBuffer sites, int s, int q) {
+		double dx = sites.x[s] - sites.x[q];
+		double dy = sites.y[s] - sites.y[q];
+		double distance = Math.sqrt(dx * dx + dy * dy) * nearlyOne;
+		if (Math.sqrt(sites.weight[s]) >= distance) {
+			sites.weight[q] = distance * distance;
+		}
+	}
 
-	private double getGlobalAvgNeighbourDistance(OpenList sites) {
+
+	private double getGlobalAvgNeighbourDistance(SiteBuffer sites) {
 		double avg = 0;
 		int num = 0;
-		for (Site point : sites)
-			if (point.getNeighbours() != null)
-				for (Site neighbour : point.getNeighbours()) {
-					double distance = neighbour.distance(point);
+		if (sites.neighboursRead) {
+			// the lists of the site objects are older after a local update
+			int[] start = sites.neighbourStart;
+			int[] neighbours = sites.neighbours;
+			for (int i = 0; i < sites.size; i++) {
+				Site point = sites.sites[i];
+				for (int k = start[i]; k < start[i + 1]; k++) {
+					avg += sites.sites[neighbours[k]].distance(point);
+					num++;
+				}
+			}
+			return avg / num;
+		}
+		for (int i = 0; i < sites.size; i++) {
+			Site point = sites.sites[i];
+			ArrayList<Site> neighbours = point.getNeighbours();
+			if (neighbours != null)
+				for (int j = 0; j < neighbours.size(); j++) {
+					double distance = neighbours.get(j).distance(point);
 					avg += distance;
 					num++;
 				}
+		}
 		avg /= num;
 		return avg;
 	}
@@ -327,9 +451,17 @@ public class VoronoiCore {
 	 */
 	public synchronized void voroDiagram() {
 		boolean worked = false;
-		while (!worked) {
+		while (!worked && !isCancelled()) {
 			try {
-				PowerDiagram diagram = new PowerDiagram();
+				if (buffer != null) {
+					buffer.store();
+					if (settings.incrementalDiagram
+							&& getWorkspace().incremental.update(buffer,
+									buffer.changed, buffer.changedCount,
+									clipPolygon, clipArea))
+						return;
+				}
+				PowerDiagram diagram = getWorkspace().diagram;
 				diagram.setSites(sites);
 				diagram.setClipPoly(clipPolygon);
 				diagram.computeDiagram();
@@ -338,11 +470,27 @@ public class VoronoiCore {
 
 				System.out.println("Error on computing power diagram, fixing by randomization");
 			
+				SiteBuffer sites = (buffer != null) ? buffer : loadBuffer();
 				randomizePoints(sites);
 				adjustWeightsToBePositive(sites);
 				fixWeightsIfDominated(sites);
+				if (sites != buffer) {
+					sites.store();
+					sites.release();
+				}
 			}
 		}
+		if (buffer != null) {
+			buffer.readCells(clipArea);
+			if (settings.incrementalDiagram)
+				getWorkspace().incremental.record(buffer);
+		}
+	}
+
+	private SiteBuffer loadBuffer() {
+		SiteBuffer buffer = getWorkspace().buffer;
+		buffer.load(sites);
+		return buffer;
 	}
 
 	public void printCoreCode() {
@@ -368,13 +516,13 @@ public class VoronoiCore {
 		}
 	}
 
-	private void randomizePoints(OpenList sites) {
+	private void randomizePoints(SiteBuffer sites) {
 
 		for (int i = 0; i < sites.size; i++) {
-			Site point = sites.array[i];
-			if (!clipPolygon.contains(point.x, point.y)) {
+			if (!clipPolygon.contains(sites.x[i], sites.y[i])) {
 				Point2D p = clipPolygon.getInnerPoint();
-				point.setXY(p.x, p.y);
+				sites.x[i] = p.x;
+				sites.y[i] = p.y;
 				continue;
 			}
 		}
@@ -384,7 +532,7 @@ public class VoronoiCore {
 	 * Computes the ordinary diagram and sets the results
 	 */
 	synchronized protected void voroOrdinaryDiagram(OpenList sites) {
-
+		PowerDiagram diagram = getWorkspace().diagram;
 		diagram.setSites(sites);
 		diagram.setClipPoly(clipPolygon);
 		try {
@@ -403,20 +551,31 @@ public class VoronoiCore {
 
 		shiftAndScaleZeroCenter();
 
-		if (frame != null)
-			frame.setVoroCore(this);// debug mode
+		VoroCoreListener listener = currentListener();
+		if (listener != null)
+			listener.started(this);
 
 		currentIteration = 0;
 		currentAreaError = 1.0;
 
-		checkPointsInPolygon(sites);
+		// area in core coordinates which is rendered as one output pixel
+		double pixelArea = 0;
+		if (settings.pixelScale > 0)
+			pixelArea = (scale / settings.pixelScale) * (scale / settings.pixelScale);
+
+		buffer = loadBuffer();
+		getWorkspace().incremental.reset();
+		checkPointsInPolygon(buffer);
 		if (firstIteration){
 			firstIteration=false;
 			voroDiagram();
+		} else {
+			buffer.store();
+			buffer.readCells(clipArea);
 		}
 
 		boolean badResult = true;
-		while (true) {
+		while (!isCancelled()) {
 			iterateSimple();
 			badResult = checkBadResult(sites);
 
@@ -426,17 +585,33 @@ public class VoronoiCore {
 						&& (!settings.cancelOnLocalError || currentErrorMax < settings.errorThreshold))
 					break;
 
+				if (settings.pixelScale > 0
+						&& buffer.maxAbsoluteError < settings.pixelAreaTolerance * pixelArea)
+					break;
+
 				if (settings.cancelMaxIterat
 						&& currentIteration > settings.maxIterat)
 					break;
 			}
 
-			if (frame != null)
-				frame.repaintWithWait(4);
+			// the budget of the node holds even if the cells are not valid yet
+			if (iterationLimit > 0 && currentIteration >= iterationLimit)
+				break;
+
+			if (deadline > 0 && System.currentTimeMillis() >= deadline)
+				break;
 		}
 
+		// the site objects are in sync since the last diagram computation
+		buffer.release();
+		buffer = null;
+
 		transformBackFromZero();
 		transform = null;
+		if (isCancelled())
+			return;
+		if (listener != null)
+			listener.finished(this);
 
 		
 		System.out.println("Iteration: " + currentIteration
@@ -501,6 +676,7 @@ public class VoronoiCore {
 
 		clipPolygon.scale(1 / scale);
 		clipPolygon.translate(center.x, center.y);
+		clipArea = clipPolygon.getArea();
 
 		for (Site s : sites) {
 			double a = s.getX();
@@ -514,15 +690,18 @@ public class VoronoiCore {
 			s.setX(a);
 			s.setY(b);
 
+			// a cancelled core may have left sites without cell
 			PolygonSimple poly = s.getPolygon();
-			poly.scale(1 / scale);
-			poly.translate(center.x, center.y);
-			s.setPolygon(poly);
-
-			PolygonSimple copy = poly.getOriginalPolygon();
-			if (copy != null) {
-				copy.scale(1 / scale);
-				copy.translate(center.x, center.y);
+			if (poly != null) {
+				poly.scale(1 / scale);
+				poly.translate(center.x, center.y);
+				s.setPolygon(poly);
+
+				PolygonSimple copy = poly.getOriginalPolygon();
+				if (copy != null) {
+					copy.scale(1 / scale);
+					copy.translate(center.x, center.y);
+				}
 			}
 
 			s.setWeight(s.getWeight() / (scale * scale));
@@ -539,16 +718,15 @@ public class VoronoiCore {
 	 * @param isLast
 	 */
 	public void drawCurrentState(boolean isLast) {
-		if (graphics != null) {
-			drawState(graphics, false);
-			frame.repaint();
-		}
+		VoroCoreListener listener = currentListener();
+		if (listener instanceof ImageFrameListener)
+			((ImageFrameListener) listener).drawCurrentState(this);
 	}
 
 	public Color getFillColorScaled(Site s) {
 		double increase = s.getLastIncrease();
 
-		double completeArea = clipPolygon.getArea();
+		double completeArea = clipArea;
 		double wantedArea = completeArea * s.getPercentage();
 		double value = wantedArea / completeArea;
 		InterpolColor interpolPos = new InterpolColor(1, 2, 0.6, 0.0, 0.8, 0.6, 1.0, 0.8);
@@ -588,7 +766,7 @@ public class VoronoiCore {
 				g.draw(poly);
 			}
 
-			g.drawString("AreaError: " + computeAreaError(sites), 30, 80);
+			g.drawString("AreaError: " + currentAreaError, 30, 80);
 			g.drawString("Iteration: " + currentIteration, 30, 110);
 		}
 
@@ -623,4 +801,21 @@ public class VoronoiCore {
 		this.settings = coreSettings;
 	}
 
+	public VoroSettings getSettings() {
+		return settings;
+	}
+
+	public int getCurrentIteration() {
+		return currentIteration;
+	}
+
+	/**
+	 * Returns the cached area of the clipping polygon.
+	 * 
+	 * @return
+	 */
+	public double getClipArea() {
+		return clipArea;
+	}
+
 }
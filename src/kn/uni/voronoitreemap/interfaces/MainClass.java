@@ -12,6 +12,7 @@
  ******************************************************************************/
 package kn.uni.voronoitreemap.interfaces;
 
+import java.awt.Rectangle;
 import java.io.File;
 
 import kn.uni.voronoitreemap.IO.PNGStatusObject;
@@ -117,6 +118,9 @@ public class MainClass {
 
 		treemap.setStatusObject(new WriteStatusObject(getFileName(name, "txt","-finished"), treemap));
 		treemap.setStatusObject(new PNGStatusObject(getFileName(name, "png"), treemap));
+		// the png is rendered in the coordinates of the root polygon
+		Rectangle bounds = rootPolygon.getBounds();
+		treemap.setOutputResolution(bounds.width, bounds.height);
 		treemap.computeLocked();
 	}
 
@@ -0,0 +1,130 @@
+package kn.uni.voronoitreemap.interfaces.data;
+
+import java.util.ArrayList;
+
+/**
+ * Tree (or hierarchy) with a root stored in compressed sparse row format. The
+ * children of node i are children[childOffsets[i]] to
+ * children[childOffsets[i+1]-1], nodes are referenced by their index 0 to
+ * size()-1. Nodes may carry other ids, which are mapped to the indices.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+public class CompactTree {
+
+	// children of node i start at childOffsets[i], length is size()+1
+	public int[] childOffsets;
+	// children of all nodes, grouped by their parent
+	public int[] children;
+	// parent of each node, -1 for the root and nodes without parent
+	public int[] parent;
+	// weight of each node, null if all weights are 1
+	public double[] weight;
+	// name of each node, null if the nodes have no names
+	public String[] names;
+	// index of the root node
+	public int rootIndex;
+	// external id of each node, null if the ids are the indices
+	public int[] nodeIds;
+
+	public CompactTree(int[] childOffsets, int[] children, int[] parent,
+			double[] weight, String[] names, int rootIndex) {
+		this.childOffsets = childOffsets;
+		this.children = children;
+		this.parent = parent;
+		this.weight = weight;
+		this.names = names;
+		this.rootIndex = rootIndex;
+	}
+
+	/**
+	 * Builds the child arrays from the parent of each node, the children of a
+	 * node keep the order of their ids.
+	 *
+	 * @param parent
+	 *            parent of each node, -1 for the root and nodes without parent
+	 * @param weight
+	 *            may be null
+	 * @param names
+	 *            may be null
+	 * @param rootIndex
+	 */
+	public CompactTree(int[] parent, double[] weight, String[] names,
+			int rootIndex) {
+		int size = parent.length;
+		int[] childOffsets = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			if (parent[i] >= 0)
+				childOffsets[parent[i] + 1]++;
+		for (int i = 0; i < size; i++)
+			childOffsets[i + 1] += childOffsets[i];
+		int[] children = new int[childOffsets[size]];
+		int[] next = new int[size];
+		System.arraycopy(childOffsets, 0, next, 0, size);
+		for (int i = 0; i < size; i++)
+			if (parent[i] >= 0)
+				children[next[parent[i]]++] = i;
+
+		this.childOffsets = childOffsets;
+		this.children = children;
+		this.parent = parent;
+		this.weight = weight;
+		this.names = names;
+		this.rootIndex = rootIndex;
+	}
+
+	public int size() {
+		return parent.length;
+	}
+
+	public int getChildCount(int node) {
+		return childOffsets[node + 1] - childOffsets[node];
+	}
+
+	public double getWeight(int node) {
+		return (weight != null) ? weight[node] : 1.0;
+	}
+
+	public int getNodeId(int node) {
+		return (nodeIds != null) ? nodeIds[node] : node;
+	}
+
+	public String getName(int node) {
+		return (names != null) ? names[node] : null;
+	}
+
+	/**
+	 * Converts adjacency lists whose first element is the id of the node
+	 * itself, followed by the ids of its children.
+	 *
+	 * @param adjLists
+	 *            list of node i at index i
+	 * @param rootIndex
+	 * @return tree without weights and names
+	 */
+	public static CompactTree fromAdjacencyLists(
+			ArrayList<ArrayList<Integer>> adjLists, int rootIndex) {
+		int size = adjLists.size();
+		int[] childOffsets = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			childOffsets[i + 1] = childOffsets[i]
+					+ Math.max(0, adjLists.get(i).size() - 1);
+
+		int[] children = new int[childOffsets[size]];
+		int[] parent = new int[size];
+		for (int i = 0; i < size; i++)
+			parent[i] = -1;
+		for (int i = 0; i < size; i++) {
+			ArrayList<Integer> adj = adjLists.get(i);
+			int pos = childOffsets[i];
+			for (int k = 1; k < adj.size(); k++) {
+				int child = adj.get(k);
+				children[pos++] = child;
+				parent[child] = i;
+			}
+		}
+		return new CompactTree(childOffsets, children, parent, null, null,
+				rootIndex);
+	}
+}
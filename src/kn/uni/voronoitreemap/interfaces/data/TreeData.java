@@ -2,6 +2,7 @@ package kn.uni.voronoitreemap.interfaces.data;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -29,6 +30,10 @@ public class TreeData {
 
 	private HashMap<String, Integer> nodeNameToId;
 
+	// tree in compressed sparse row format, if set the adjacency lists and
+	// node attributes may be null, addLink converts it to adjacency lists
+	public CompactTree compact;
+
 	public static class Node {
 
 		public Node() {
@@ -50,7 +55,8 @@ public class TreeData {
 	}
 
 	public void setRoot(String name) {
-		if (!nodeNameToId.containsKey(name))
+		indexCompactNames();
+		if (nodeNameToId == null || !nodeNameToId.containsKey(name))
 			return;
 		rootIndex = nodeNameToId.get(name);
 	}
@@ -58,12 +64,24 @@ public class TreeData {
 	public void setWeight(String name, double weight) {
 		if (weight <= 0)
 			return;
-		if (!nodeNameToId.containsKey(name))
+		indexCompactNames();
+		if (nodeNameToId == null || !nodeNameToId.containsKey(name))
+			return;
+		int id = nodeNameToId.get(name);
+		if (compact == null) {
+			nodeAtt.get(id).weight = weight;
 			return;
-		nodeAtt.get(nodeNameToId.get(name)).weight = weight;
+		}
+		if (compact.weight == null) {
+			compact.weight = new double[compact.size()];
+			Arrays.fill(compact.weight, 1.0);
+		}
+		compact.weight[id] = weight;
 	}
 
 	public void addLink(String childName, String parentName) {
+		if (compact != null)
+			expandCompact();
 		if (nodeNameToId == null)
 			init();
 
@@ -96,4 +114,83 @@ public class TreeData {
 		nodeNameToId.put(name, index);
 		return node;
 	}
+
+	/**
+	 * Maps the names of the compact tree to the node indices, once.
+	 */
+	private void indexCompactNames() {
+		if (compact == null || nodeNameToId != null || compact.names == null)
+			return;
+		String[] names = compact.names;
+		nodeNameToId = new HashMap<String, Integer>(
+				Math.max(16, (int) (names.length / 0.75f) + 1));
+		for (int i = 0; i < names.length; i++)
+			if (names[i] != null)
+				nodeNameToId.put(names[i], i);
+	}
+
+	/**
+	 * Converts the compact tree into adjacency lists and node attributes, so
+	 * that links can be added.
+	 */
+	private void expandCompact() {
+		CompactTree compact = this.compact;
+		if (compact.nodeIds != null)
+			throw new IllegalStateException(
+					"Links can not be added to a compact tree with node ids.");
+		Integer root = (rootIndex != null) ? rootIndex : compact.rootIndex;
+		int size = compact.size();
+		tree = new ArrayList<ArrayList<Integer>>(size);
+		nodeAtt = new HashMap<Integer, TreeData.Node>(
+				Math.max(16, (int) (size / 0.75f) + 1));
+		nodeNameToId = new HashMap<String, Integer>(
+				Math.max(16, (int) (size / 0.75f) + 1));
+		for (int i = 0; i < size; i++) {
+			ArrayList<Integer> adjList = new ArrayList<Integer>(
+					compact.getChildCount(i) + 1);
+			adjList.add(i);
+			for (int k = compact.childOffsets[i]; k < compact.childOffsets[i + 1]; k++)
+				adjList.add(compact.children[k]);
+			tree.add(adjList);
+
+			Node node = new TreeData.Node();
+			node.nodeId = i;
+			node.parentId = (compact.parent[i] >= 0) ? compact.parent[i] : i;
+			node.name = compact.getName(i);
+			node.weight = compact.getWeight(i);
+			nodeAtt.put(i, node);
+			if (node.name != null)
+				nodeNameToId.put(node.name, i);
+		}
+		rootIndex = root;
+		this.compact = null;
+	}
+
+	/**
+	 * Converts the tree to the compressed sparse row format, nodes without
+	 * attributes get the weight 1 and no name.
+	 * 
+	 * @return
+	 */
+	public CompactTree toCompactTree() {
+		if (compact != null) {
+			if (rootIndex != null)
+				compact.rootIndex = rootIndex;
+			return compact;
+		}
+		CompactTree compact = CompactTree.fromAdjacencyLists(tree, rootIndex);
+		if (nodeAtt != null) {
+			int size = compact.size();
+			double[] weight = new double[size];
+			String[] names = new String[size];
+			for (int i = 0; i < size; i++) {
+				Node node = nodeAtt.get(i);
+				weight[i] = (node != null) ? node.weight : 1.0;
+				names[i] = (node != null) ? node.name : null;
+			}
+			compact.weight = weight;
+			compact.names = names;
+		}
+		return compact;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Aggregates the children of a range of nodes of one level, see
+ * {@link VoroNode#calculateWeights()}. Ranges above a threshold are split
+ * into two tasks which run in parallel on the common ForkJoinPool. Each node
+ * only writes to itself and its own children, so the tasks need no
+ * synchronization.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+class AggregateTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/** smaller ranges are aggregated by the calling thread **/
+	private static final int threshold = 4096;
+
+	private VoroNode[] nodes;
+	private int from;
+	private int to;
+
+	AggregateTask(VoroNode[] nodes, int from, int to) {
+		this.nodes = nodes;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= threshold) {
+			for (int k = from; k < to; k++)
+				nodes[k].aggregateChildren();
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new AggregateTask(nodes, from, middle),
+				new AggregateTask(nodes, middle, to));
+	}
+}
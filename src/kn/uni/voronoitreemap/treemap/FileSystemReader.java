@@ -16,6 +16,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Reader to extract a hierarchy out of a given entrypoint in the filesystem.
@@ -41,16 +43,39 @@ public class FileSystemReader {
 	}
 
 	public void listDir(File dir, int parentId) throws IOException {
+		// open directories with the position of the next file to list
+		ArrayList<File[]> dirFiles = new ArrayList<File[]>();
+		int[] positions = new int[16];
+		int[] parentIds = new int[16];
 		File[] files = dir.listFiles();
 		if (files == null || files.length < 1)
 			return;
-		for (File f : files) {
+		dirFiles.add(files);
+		parentIds[0] = parentId;
+		while (!dirFiles.isEmpty()) {
+			int top = dirFiles.size() - 1;
+			files = dirFiles.get(top);
+			if (positions[top] == files.length) {
+				dirFiles.remove(top);
+				continue;
+			}
+			File f = files[positions[top]++];
 			if(!f.exists()) continue;
 			int nodeId = ++nodeCount;
-			String line = getLine(f, nodeId, parentId);
+			String line = getLine(f, nodeId, parentIds[top]);
 			writer.write(line + "\n");
-			if (f.isDirectory())
-				listDir(f, nodeId);
+			if (f.isDirectory()) {
+				File[] subFiles = f.listFiles();
+				if (subFiles == null || subFiles.length < 1)
+					continue;
+				if (top + 1 == positions.length) {
+					positions = Arrays.copyOf(positions, 2 * positions.length);
+					parentIds = Arrays.copyOf(parentIds, 2 * parentIds.length);
+				}
+				dirFiles.add(subFiles);
+				positions[top + 1] = 0;
+				parentIds[top + 1] = nodeId;
+			}
 		}
 	}
 
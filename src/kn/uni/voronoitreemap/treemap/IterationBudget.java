@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import kn.uni.voronoitreemap.core.VoronoiCore;
+
+/**
+ * Splits a total number of iterations and/or the time until a deadline among
+ * the nodes of a treemap. Each node gets a share of what is left in proportion
+ * to its demand, the number of its children weighted by its visible area, with
+ * respect to the demand of all nodes which did not start yet. Iterations a node
+ * does not use are returned to the following nodes. A node whose share is used
+ * up keeps the layout of its last iteration. Every node is granted at least one
+ * iteration, so a budget smaller than the number of nodes is exceeded by one
+ * iteration for each node which starts after the budget is used up.
+ *
+ * @author Arlind Nocaj
+ */
+public class IterationBudget {
+
+	private long remainingIterations;
+	private final boolean limitIterations;
+	/** absolute time in milliseconds, 0 if there is no deadline **/
+	private final long deadline;
+	/** number of nodes which are computed at the same time **/
+	private final int parallelism;
+	private double remainingDemand;
+
+	/**
+	 * @param iterations
+	 *            total number of iterations, 0 for no limit
+	 * @param deadline
+	 *            absolute time in milliseconds, 0 for no deadline
+	 * @param parallelism
+	 *            number of threads computing nodes
+	 * @param root
+	 *            root of the tree whose nodes share the budget
+	 * @param nodes
+	 *            all other nodes of the tree
+	 */
+	public IterationBudget(long iterations, long deadline, int parallelism,
+			VoroNode root, Iterable<VoroNode> nodes) {
+		this.remainingIterations = iterations;
+		this.limitIterations = iterations > 0;
+		this.deadline = deadline;
+		this.parallelism = Math.max(1, parallelism);
+		remainingDemand = demand(root);
+		for (VoroNode node : nodes)
+			remainingDemand += demand(node);
+	}
+
+	/**
+	 * Demand of a node, the number of its children weighted by the fraction
+	 * of the root area it covers.
+	 */
+	static double demand(VoroNode node) {
+		if (node.getChildren() == null || node.getChildren().size() <= 1)
+			return 0;
+		return node.getChildren().size() * (1.0 + node.getAreaFraction());
+	}
+
+	/**
+	 * Sets the iteration limit and the deadline of the core of the node.
+	 *
+	 * @param node
+	 * @param core
+	 * @return number of iterations granted to the node, to be passed to
+	 *         {@link #finish(int, int)}
+	 */
+	public synchronized int start(VoroNode node, VoronoiCore core) {
+		double demand = demand(node);
+		double share = (remainingDemand > 0) ? Math.min(1.0, demand / remainingDemand) : 1.0;
+		remainingDemand = Math.max(0, remainingDemand - demand);
+
+		int granted = 0;
+		if (limitIterations) {
+			// a core needs at least one iteration for a layout, so once the
+			// budget is used up each further node overruns it by one
+			granted = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+					Math.round(remainingIterations * share)));
+			remainingIterations -= granted;
+			core.setIterationLimit(granted);
+		}
+		if (deadline > 0) {
+			long now = System.currentTimeMillis();
+			// nodes computed in parallel share the remaining time
+			long time = (long) (Math.max(0, deadline - now) * share * parallelism);
+			core.setDeadline(Math.min(deadline, now + time));
+		}
+		return granted;
+	}
+
+	/**
+	 * Returns the iterations the node did not use.
+	 *
+	 * @param granted
+	 *            iterations granted by {@link #start(VoroNode, VoronoiCore)}
+	 * @param used
+	 *            iterations the core did
+	 */
+	public synchronized void finish(int granted, int used) {
+		if (limitIterations)
+			remainingIterations += Math.max(0, granted - used);
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import java.util.Arrays;
+
+/**
+ * Lookup of node indices by node id, the ids are sorted once and searched
+ * binary.
+ * 
+ * @author Arlind Nocaj
+ * 
+ */
+final class NodeIdIndex {
+
+	/** node ids in increasing order and their index **/
+	private final int[] sortedIds;
+	private final int[] sortedIndex;
+
+	/**
+	 * @param nodeIds
+	 *            id of the node at each index
+	 * @param size
+	 *            number of nodes
+	 */
+	NodeIdIndex(int[] nodeIds, int size) {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) nodeIds[i] << 32) | i;
+		Arrays.sort(keys);
+		sortedIds = new int[size];
+		sortedIndex = new int[size];
+		for (int i = 0; i < size; i++) {
+			sortedIds[i] = (int) (keys[i] >> 32);
+			sortedIndex[i] = (int) keys[i];
+		}
+	}
+
+	/**
+	 * Returns the index of the node with the given id, -1 if there is none.
+	 * 
+	 * @param nodeId
+	 * @return
+	 */
+	int indexOf(int nodeId) {
+		int position = Arrays.binarySearch(sortedIds, nodeId);
+		return (position < 0) ? -1 : sortedIndex[position];
+	}
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import kn.uni.voronoitreemap.j2d.PolygonSimple;
+
+/**
+ * Immutable copy of a computed treemap in flat arrays. The nodes are stored in
+ * breadth-first order starting with the root, so the parent of a node always
+ * has a smaller index. The vertices of the polygon of node i are
+ * (coordinates[2k], coordinates[2k+1]) for polygonStart[i] <= k <
+ * polygonStart[i+1]. A snapshot can be read by any number of threads without
+ * locking.
+ * 
+ * @author Arlind Nocaj
+ * 
+ */
+public final class TreemapSnapshot {
+
+	private final int size;
+	private final int[] nodeIds;
+	/** index of the parent node, -1 for the root **/
+	private final int[] parent;
+	private final int[] level;
+	private final double[] weight;
+	private final int[] polygonStart;
+	private final double[] coordinates;
+
+	/** lookup of the indices by node id **/
+	private final NodeIdIndex idIndex;
+
+	/**
+	 * Copies the current layout of the treemap.
+	 * 
+	 * @param treemap
+	 *            treemap whose computation is finished
+	 */
+	TreemapSnapshot(VoronoiTreemap treemap) {
+		ArrayList<VoroNode> nodes = new ArrayList<VoroNode>();
+		VoroNode root = treemap.getRootCell();
+		if (root != null)
+			nodes.add(root);
+		int[] parents = new int[16];
+		int[] levels = new int[16];
+		parents[0] = -1;
+		int vertices = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			VoroNode node = nodes.get(i);
+			PolygonSimple polygon = polygonOf(node);
+			if (polygon != null)
+				vertices += polygon.length;
+			ArrayList<VoroNode> children = node.getChildren();
+			if (children == null)
+				continue;
+			if (nodes.size() + children.size() > parents.length) {
+				int capacity = Math.max(2 * parents.length, nodes.size() + children.size());
+				parents = Arrays.copyOf(parents, capacity);
+				levels = Arrays.copyOf(levels, capacity);
+			}
+			for (VoroNode child : children) {
+				parents[nodes.size()] = i;
+				levels[nodes.size()] = levels[i] + 1;
+				nodes.add(child);
+			}
+		}
+
+		size = nodes.size();
+		nodeIds = new int[size];
+		parent = Arrays.copyOf(parents, size);
+		level = Arrays.copyOf(levels, size);
+		weight = new double[size];
+		polygonStart = new int[size + 1];
+		coordinates = new double[2 * vertices];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			VoroNode node = nodes.get(i);
+			nodeIds[i] = node.getNodeID();
+			weight[i] = node.getWeight();
+			polygonStart[i] = k;
+			PolygonSimple polygon = polygonOf(node);
+			if (polygon == null)
+				continue;
+			double[] x = polygon.getXPoints();
+			double[] y = polygon.getYPoints();
+			for (int v = 0; v < polygon.length; v++) {
+				coordinates[2 * k] = x[v];
+				coordinates[2 * k + 1] = y[v];
+				k++;
+			}
+		}
+		polygonStart[size] = k;
+
+		idIndex = new NodeIdIndex(nodeIds, size);
+	}
+
+	private static PolygonSimple polygonOf(VoroNode node) {
+		if (node.getSite() != null && node.getSite().getPolygon() != null)
+			return node.getSite().getPolygon();
+		return node.getPolygon();
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getNodeId(int index) {
+		return nodeIds[index];
+	}
+
+	/**
+	 * Returns the index of the parent, -1 for the root.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getParent(int index) {
+		return parent[index];
+	}
+
+	/**
+	 * Returns the depth of the node, 0 for the root.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getLevel(int index) {
+		return level[index];
+	}
+
+	public double getWeight(int index) {
+		return weight[index];
+	}
+
+	/**
+	 * Returns the index of the node with the given id, -1 if there is none.
+	 * 
+	 * @param nodeId
+	 * @return
+	 */
+	public int indexOf(int nodeId) {
+		return idIndex.indexOf(nodeId);
+	}
+
+	/**
+	 * Returns the number of vertices of the polygon of the node, 0 if the node
+	 * has no polygon.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getVertexCount(int index) {
+		return polygonStart[index + 1] - polygonStart[index];
+	}
+
+	public double getX(int index, int vertex) {
+		return coordinates[2 * (polygonStart[index] + vertex)];
+	}
+
+	public double getY(int index, int vertex) {
+		return coordinates[2 * (polygonStart[index] + vertex) + 1];
+	}
+
+	/**
+	 * Returns a new polygon with the vertices of the node, null if the node has
+	 * no polygon.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public PolygonSimple getPolygon(int index) {
+		int count = getVertexCount(index);
+		if (count == 0)
+			return null;
+		PolygonSimple polygon = new PolygonSimple();
+		for (int v = 0; v < count; v++)
+			polygon.add(getX(index, v), getY(index, v));
+		return polygon;
+	}
+}
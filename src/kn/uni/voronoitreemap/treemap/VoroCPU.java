@@ -17,7 +17,9 @@ import java.util.ArrayList;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import kn.uni.voronoitreemap.core.CoreWorkspace;
 import kn.uni.voronoitreemap.interfaces.StatusObject;
 
 
@@ -43,21 +45,27 @@ public class VoroCPU extends Thread {
 
 	private BlockingQueue<VoroNode> cellQueue;
 	private StatusObject tellEnd;
+	private VoronoiTreemap treemap;
+	private CoreWorkspace workspace = new CoreWorkspace();
+	/** nodes which are queued or in computation, shared by all threads **/
+	private AtomicInteger pendingNodes;
 
-	VoroCPU(BlockingQueue<VoroNode> queue, StatusObject tellEnd, Set<VoroCPU> runningThreads) {
-		this.tellEnd = tellEnd;
+	VoroCPU(BlockingQueue<VoroNode> queue, VoronoiTreemap treemap, Set<VoroCPU> runningThreads, AtomicInteger pendingNodes) {
+		this.tellEnd = treemap;
+		this.treemap = treemap;
 		this.cellQueue = queue;
 		this.runningThreads=runningThreads;
+		this.pendingNodes=pendingNodes;
 	}
 
 	@Override
 	public void run() {
-		while (true) {
+		while (!treemap.isCancelled()) {
 			try {
 				VoroNode voroNode = cellQueue.poll();
 				if (voroNode == null) {
 					// notify that we are finished
-					if (runningThreads.size() == 0 && cellQueue.size() == 0) {
+					if (pendingNodes.get() == 0) {
 					break;
 					}else{
 						voroNode = cellQueue.poll(100, TimeUnit.MILLISECONDS);
@@ -67,23 +75,34 @@ public class VoroCPU extends Thread {
 					}
 				}
 				runningThreads.add(this);				 
-				voroNode.iterate();				
+				voroNode.iterate(workspace);
+				if (treemap.isCancelled()) {
+					runningThreads.remove(this);
+					break;
+				}
 				tellEnd.finishedNode(voroNode.getNodeID(), voroNode.getHeight(),voroNode.getChildrenIDs(),voroNode.getChildrenPolygons());
 				ArrayList<VoroNode> children = voroNode.getChildren();
 				if (children!=null){
+				// counted before they are queued, so the count can not drop to
+				// zero while another thread computes them
+				pendingNodes.addAndGet(children.size());
 				for (VoroNode node : children) {
 						cellQueue.add(node);
 					}
 				}
 				runningThreads.remove(this);
-				if (runningThreads.size() == 0 && cellQueue.size() == 0 && (voroNode.getChildren()==null || voroNode.getChildren().size()==0 )) {
+				if (pendingNodes.decrementAndGet() == 0) {
 					tellEnd.finished();
 				}
+			} catch (InterruptedException e) {
+				// woken up by a cancellation
+				runningThreads.remove(this);
 			} catch (Exception e) {
 				e.printStackTrace();
 				cellQueue.clear();
 				runningThreads.remove(this);
 				System.out.println("VoroCPU is stopped.");;
+				treemap.cancel(e);
 			}
 		}
 	}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+
+import kn.uni.voronoitreemap.core.CoreWorkspace;
+
+/**
+ * Fixed number of threads which compute the nodes of any number of treemaps,
+ * so that concurrent computations do not use more threads than the pool has.
+ * The treemaps with nodes ready for computation take turns, each turn
+ * computes one node, so that a small treemap is not starved behind a large
+ * one. A treemap is finished when it has no node left which is queued or in
+ * computation.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+public class VoroComputePool {
+
+	/**
+	 * Nodes of one treemap which are queued or in computation.
+	 */
+	private static class Job {
+		VoronoiTreemap treemap;
+		Queue<VoroNode> ready;
+		/** number of nodes which are queued or in computation **/
+		int pending;
+		/** true if the job is in the round-robin queue **/
+		boolean scheduled;
+	}
+
+	private final ArrayDeque<Job> jobs = new ArrayDeque<Job>();
+	/** jobs with pending nodes, scheduled or not **/
+	private final ArrayList<Job> activeJobs = new ArrayList<Job>();
+	private final ArrayList<Worker> workers = new ArrayList<Worker>();
+	private boolean shutdown = false;
+
+	/**
+	 * @param threads
+	 *            number of threads, e.g. the number of cores
+	 */
+	public VoroComputePool(int threads) {
+		for (int i = 0; i < Math.max(1, threads); i++) {
+			Worker worker = new Worker();
+			worker.setName("VoroComputePool-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	public int getNumberThreads() {
+		return workers.size();
+	}
+
+	/**
+	 * Queues the computation of the treemap starting with the given node.
+	 *
+	 * @param treemap
+	 * @param root
+	 * @param priority
+	 *            compute the nodes with the most expensive subtrees first
+	 */
+	synchronized void submit(VoronoiTreemap treemap, VoroNode root,
+			boolean priority) {
+		if (shutdown)
+			throw new IllegalStateException("VoroComputePool is shut down.");
+		Job job = new Job();
+		job.treemap = treemap;
+		if (priority)
+			job.ready = new PriorityQueue<VoroNode>(11, VoroNode.heavierSubtreeFirst);
+		else
+			job.ready = new ArrayDeque<VoroNode>();
+		job.ready.add(root);
+		job.pending = 1;
+		job.scheduled = true;
+		jobs.add(job);
+		activeJobs.add(job);
+		notifyAll();
+	}
+
+	/**
+	 * Stops the threads after their current node, queued nodes are dropped.
+	 * The treemaps which are not finished are cancelled, their futures
+	 * complete with a CancellationException.
+	 */
+	public void shutdown() {
+		ArrayList<Job> dropped;
+		synchronized (this) {
+			shutdown = true;
+			jobs.clear();
+			dropped = new ArrayList<Job>(activeJobs);
+			activeJobs.clear();
+			notifyAll();
+		}
+		for (Job job : dropped)
+			job.treemap.cancel(new CancellationException(
+					"VoroComputePool is shut down."));
+	}
+
+	/**
+	 * Takes the next node of the job at the head of the round-robin queue.
+	 *
+	 * @return null if the pool is shut down
+	 */
+	private synchronized Job take() throws InterruptedException {
+		while (true) {
+			if (shutdown)
+				return null;
+			Job job = jobs.poll();
+			if (job == null) {
+				wait();
+				continue;
+			}
+			job.scheduled = false;
+			if (job.treemap.isCancelled()) {
+				activeJobs.remove(job);
+				continue;
+			}
+			if (job.ready.isEmpty())
+				continue;
+			return job;
+		}
+	}
+
+	private synchronized VoroNode next(Job job) {
+		VoroNode node = job.ready.poll();
+		if (!job.ready.isEmpty())
+			schedule(job);
+		return node;
+	}
+
+	private void schedule(Job job) {
+		if (!job.scheduled) {
+			job.scheduled = true;
+			jobs.add(job);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Queues the children of a computed node.
+	 *
+	 * @return true if the treemap has no pending nodes left
+	 */
+	private synchronized boolean done(Job job, VoroNode node) {
+		ArrayList<VoroNode> children = node.getChildren();
+		if (children != null && !job.treemap.isCancelled()) {
+			for (VoroNode child : children) {
+				job.ready.add(child);
+				job.pending++;
+			}
+			if (!job.ready.isEmpty())
+				schedule(job);
+		}
+		job.pending--;
+		if (job.pending > 0)
+			return false;
+		// false if the job was dropped by a shutdown
+		return activeJobs.remove(job);
+	}
+
+	private class Worker extends Thread {
+
+		private CoreWorkspace workspace = new CoreWorkspace();
+
+		@Override
+		public void run() {
+			while (true) {
+				Job job;
+				try {
+					job = take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (job == null)
+					return;
+				VoroNode node = next(job);
+				if (node == null)
+					continue;
+				VoronoiTreemap treemap = job.treemap;
+				try {
+					node.iterate(workspace);
+					if (!treemap.isCancelled())
+						treemap.finishedNode(node.getNodeID(), node.getHeight(),
+								node.getChildrenIDs(), node.getChildrenPolygons());
+				} catch (Exception e) {
+					e.printStackTrace();
+					System.out.println("Computation of the treemap is stopped.");
+					treemap.cancel(e);
+				}
+				// a cancelled job is counted down as well to leave the pool
+				if (done(job, node) && !treemap.isCancelled())
+					treemap.finished();
+			}
+		}
+	}
+}
@@ -14,10 +14,12 @@ package kn.uni.voronoitreemap.treemap;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Random;
 
+import kn.uni.voronoitreemap.core.CoreWorkspace;
 import kn.uni.voronoitreemap.core.VoronoiCore;
 import kn.uni.voronoitreemap.extension.VoroCellObject;
 import kn.uni.voronoitreemap.j2d.Point2D;
@@ -47,6 +49,10 @@ public class VoroNode implements VoroCellObject {
 	private boolean toConsider = true;
 
 	private double weight = 1;
+	/** estimated cost of computing this node and all its descendants **/
+	private double subtreeCost = 0;
+	/** number of nodes below this node **/
+	private int descendantCount = 0;
 	private VoronoiCore core;
 	private Site site;
 	private double wantedPercentage = 0;
@@ -54,6 +60,14 @@ public class VoroNode implements VoroCellObject {
 	public String name;
 	
 
+	/** orders nodes with the most expensive subtrees first **/
+	static final Comparator<VoroNode> heavierSubtreeFirst = new Comparator<VoroNode>() {
+		@Override
+		public int compare(VoroNode o1, VoroNode o2) {
+			return -Double.compare(o1.subtreeCost, o2.subtreeCost);
+		}
+	};
+
 	public VoroNode(int nodeID) {
 		this.nodeID = nodeID;
 		relativeVector = new Point2D();
@@ -64,16 +78,63 @@ public class VoroNode implements VoroCellObject {
 		children = new ArrayList<VoroNode>(numberChildren);
 	}
 
-	public void calculateWeights() {
-		treemap.amountAllNodes++;
+	/**
+	 * Sets the weights, wanted percentages, costs and descendant counts of
+	 * this node and its descendants bottom-up. The nodes of one level depend
+	 * only on the level below, so large levels are split into parallel
+	 * tasks. The levels themselves are collected by a sequential
+	 * breadth-first search.
+	 * 
+	 * @return number of nodes in the subtree of this node, including itself
+	 */
+	public int calculateWeights() {
+		ArrayList<VoroNode> subtree = getSubtree();
+		VoroNode[] nodes = subtree.toArray(new VoroNode[subtree.size()]);
+
+		// the levels are contiguous in breadth-first order, level l starts at
+		// levelStart[l]
+		int[] levelStart = new int[16];
+		int levels = 0;
+		int end = 1;
+		for (int k = 0; k < nodes.length; ) {
+			if (levels + 1 == levelStart.length)
+				levelStart = Arrays.copyOf(levelStart, 2 * levelStart.length);
+			levelStart[levels++] = k;
+			int next = end;
+			for (; k < end; k++)
+				if (nodes[k].children != null)
+					next += nodes[k].children.size();
+			end = next;
+		}
+		levelStart[levels] = nodes.length;
+
+		for (int l = levels - 1; l >= 0; l--)
+			new AggregateTask(nodes, levelStart[l], levelStart[l + 1]).invoke();
+		return 1 + descendantCount;
+	}
+
+	/**
+	 * Sets the weight of this node to the sum of the weights of its children
+	 * and their wanted percentages, the children have to be aggregated.
+	 */
+	void aggregateChildren() {
 		if (children == null || children.size() == 0) {
+			subtreeCost = 1;
+			descendantCount = 0;
 			return;
 		}
 		double sum = 0;
+		// each iteration computes a power diagram of all children
+		int n = children.size();
+		double cost = 1 + ((n > 1) ? n * (1 + Math.log(n)) : 0);
+		int descendants = n;
 		for (VoroNode child : children) {
-			child.calculateWeights();
 			sum += child.getWeight();
+			cost += child.subtreeCost;
+			descendants += child.descendantCount;
 		}
+		subtreeCost = cost;
+		descendantCount = descendants;
 
 		for (VoroNode child : children) {
 			child.setWantedPercentage(child.getWeight() / sum);
@@ -82,7 +143,48 @@ public class VoroNode implements VoroCellObject {
 
 	}
 
+	/**
+	 * Returns this node and all its descendants in breadth-first order.
+	 * 
+	 * @return
+	 */
+	ArrayList<VoroNode> getSubtree() {
+		ArrayList<VoroNode> nodes = new ArrayList<VoroNode>();
+		nodes.add(this);
+		for (int k = 0; k < nodes.size(); k++) {
+			ArrayList<VoroNode> nodeChildren = nodes.get(k).children;
+			if (nodeChildren != null)
+				nodes.addAll(nodeChildren);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Returns the estimated cost of computing this node and its descendants,
+	 * which is set by {@link #calculateWeights()}.
+	 * 
+	 * @return
+	 */
+	public double getSubtreeCost() {
+		return subtreeCost;
+	}
+
+	/**
+	 * Returns the number of nodes below this node, which is set by
+	 * {@link #calculateWeights()}.
+	 * 
+	 * @return
+	 */
+	public int getDescendantCount() {
+		return descendantCount;
+	}
+
 	public void setSpiralRelativeCoordinates() {
+		for (VoroNode node : getSubtree())
+			node.setSpiralChildCoordinates();
+	}
+
+	private void setSpiralChildCoordinates() {
 		if (children == null || children.size() == 0) {
 			return;
 		}
@@ -110,9 +212,6 @@ public class VoroNode implements VoroCellObject {
 			i++;
 		}
 
-		for (VoroNode child : children)
-			child.setSpiralRelativeCoordinates();
-
 	}
 
 	public void setNodeID(int nodeID) {
@@ -166,6 +265,19 @@ public class VoroNode implements VoroCellObject {
 		return wantedPercentage;
 	}
 
+	/**
+	 * Returns the fraction of the area of the root which is covered by this
+	 * node, the weights have to be calculated before.
+	 * 
+	 * @return
+	 */
+	public double getAreaFraction() {
+		double fraction = 1.0;
+		for (VoroNode node = this; node.parent != null; node = node.parent)
+			fraction *= node.wantedPercentage;
+		return fraction;
+	}
+
 	public void addChild(VoroNode child) {
 		if (children == null) {
 			children = new ArrayList<VoroNode>();
@@ -177,6 +289,17 @@ public class VoroNode implements VoroCellObject {
 	}
 
 	public void iterate() {
+		iterate(null);
+	}
+
+	/**
+	 * Computes the layout of the children of this node.
+	 * 
+	 * @param workspace
+	 *            buffers reused by the core, or null to let the core allocate
+	 *            its own
+	 */
+	public void iterate(CoreWorkspace workspace) {
 
 		// System.out.println("VoroNode begin Iteration Node: " + getNodeID()+ "
 		// Layer: " + getHeight() + " " + Arrays.toString(getChildrenIDs()));
@@ -184,9 +307,17 @@ public class VoroNode implements VoroCellObject {
 			return;
 		if (site != null)
 			polygon = this.site.getPolygon();
+		if (polygon == null) {
+			VoroNode parent = getParent();
+			// the budget of an ancestor ran out before this cell was valid
+			if (parent == null || parent.getPolygon() == null
+					|| parent.getChildren().size() != 1)
+				return;
+		}
 
 		scaleRelativeVectors();
-		if (this.core == null) {
+		// the sites are kept for later computations, the core may be released
+		if (children.get(0).site == null) {
 			core = new VoronoiCore(this.polygon);
 			setSettingsToCore();
 			// add each children as a site
@@ -223,7 +354,23 @@ public class VoroNode implements VoroCellObject {
 
 		}
 
+		if (workspace != null)
+			core.setWorkspace(workspace);
+		core.setCancelFlag(treemap.getCancelFlag());
+		core.setListener(treemap.getCoreListener());
+		IterationBudget budget = treemap.getIterationBudget();
+		int granted = 0;
+		if (budget != null)
+			granted = budget.start(this, core);
+		long timeoutAt = treemap.getTimeoutAt();
+		if (timeoutAt > 0)
+			core.setDeadline((core.getDeadline() > 0) ? Math.min(core.getDeadline(), timeoutAt) : timeoutAt);
 		core.doIterate();
+		// a cancelled core may leave sites without polygon
+		if (treemap.isCancelled())
+			return;
+		if (budget != null)
+			budget.finish(granted, core.getCurrentIteration());
 
 		if (treemap.getUseBorder()) {
 			double shrinkPercentage = treemap.getShrinkPercentage();
@@ -231,7 +378,30 @@ public class VoroNode implements VoroCellObject {
 			Site[] sites = core.getSites().array;
 			for (int i = 0; i < length; i++) {
 				Site s = sites[i];
-				s.getPolygon().shrinkForBorder(shrinkPercentage);
+				if (s.getPolygon() != null)
+					s.getPolygon().shrinkForBorder(shrinkPercentage);
+			}
+		}
+
+		if (treemap.getMemoryLean())
+			releaseSolverState();
+	}
+
+	/**
+	 * Drops the core and the neighbour lists of the sites of the children,
+	 * only the cell polygons and the site data are kept.
+	 */
+	public void releaseSolverState() {
+		core = null;
+		if (children == null)
+			return;
+		for (VoroNode child : children) {
+			if (child.site == null)
+				continue;
+			ArrayList<Site> neighbours = child.site.getNeighbours();
+			if (neighbours != null) {
+				neighbours.clear();
+				neighbours.trimToSize();
 			}
 		}
 	}
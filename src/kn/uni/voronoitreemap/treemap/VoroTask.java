@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Arlind Nocaj, University of Konstanz.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * For distributors of proprietary software, other licensing is possible on request: arlind.nocaj@gmail.com
+ *
+ * This work is based on the publication below, please cite on usage, e.g.,  when publishing an article.
+ * Arlind Nocaj, Ulrik Brandes, "Computing Voronoi Treemaps: Faster, Simpler, and Resolution-independent", Computer Graphics Forum, vol. 31, no. 3, June 2012, pp. 855-864
+ ******************************************************************************/
+package kn.uni.voronoitreemap.treemap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountedCompleter;
+
+import kn.uni.voronoitreemap.core.CoreWorkspace;
+import kn.uni.voronoitreemap.interfaces.StatusObject;
+
+/**
+ * Computes a VoroNode on a ForkJoinPool and forks the tasks of its children
+ * when it is done. A task does not wait for its children, it completes when
+ * the tasks of all its children completed, so the stack depth does not grow
+ * with the depth of the tree and the completion of the root task marks the
+ * end of the computation.
+ *
+ * @author Arlind Nocaj
+ *
+ */
+public class VoroTask extends CountedCompleter<Void> {
+
+	private static final long serialVersionUID = 1L;
+
+	private VoroNode node;
+	private StatusObject tellEnd;
+	/** one workspace per worker thread of the pool **/
+	private ThreadLocal<CoreWorkspace> workspaces;
+	/** start the children with the most expensive subtrees first **/
+	private boolean heavierFirst;
+
+	VoroTask(VoroNode node, StatusObject tellEnd,
+			ThreadLocal<CoreWorkspace> workspaces, boolean heavierFirst) {
+		this(null, node, tellEnd, workspaces, heavierFirst);
+	}
+
+	private VoroTask(VoroTask parent, VoroNode node, StatusObject tellEnd,
+			ThreadLocal<CoreWorkspace> workspaces, boolean heavierFirst) {
+		super(parent);
+		this.node = node;
+		this.tellEnd = tellEnd;
+		this.workspaces = workspaces;
+		this.heavierFirst = heavierFirst;
+	}
+
+	@Override
+	public void compute() {
+		VoronoiTreemap treemap = node.getTreemap();
+		if (treemap.isCancelled()) {
+			tryComplete();
+			return;
+		}
+		node.iterate(workspaces.get());
+		if (treemap.isCancelled()) {
+			tryComplete();
+			return;
+		}
+		tellEnd.finishedNode(node.getNodeID(), node.getHeight(),
+				node.getChildrenIDs(), node.getChildrenPolygons());
+
+		ArrayList<VoroNode> children = node.getChildren();
+		if (children != null && children.size() > 0) {
+			if (heavierFirst) {
+				children = new ArrayList<VoroNode>(children);
+				Collections.sort(children, VoroNode.heavierSubtreeFirst);
+			}
+			addToPendingCount(children.size());
+			// forked in reverse, this thread takes the last forked task first
+			for (int i = children.size() - 1; i >= 0; i--)
+				new VoroTask(this, children.get(i), tellEnd, workspaces,
+						heavierFirst).fork();
+		}
+		tryComplete();
+	}
+}
@@ -15,28 +15,45 @@ package kn.uni.voronoitreemap.treemap;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import kn.uni.voronoitreemap.IO.BinaryTreeFormat;
 import kn.uni.voronoitreemap.IO.IO;
 import kn.uni.voronoitreemap.IO.PNGStatusObject;
 import kn.uni.voronoitreemap.IO.WriteStatusObject;
+import kn.uni.voronoitreemap.core.CoreWorkspace;
+import kn.uni.voronoitreemap.core.VoroCoreListener;
+import kn.uni.voronoitreemap.core.VoroOptimizer;
 import kn.uni.voronoitreemap.core.VoroSettings;
-import kn.uni.voronoitreemap.debug.ImageFrame;
 import kn.uni.voronoitreemap.gui.JPolygon;
 import kn.uni.voronoitreemap.interfaces.StatusObject;
+import kn.uni.voronoitreemap.interfaces.data.CompactTree;
 import kn.uni.voronoitreemap.interfaces.data.TreeData;
-import kn.uni.voronoitreemap.interfaces.data.TreeData.Node;
 import kn.uni.voronoitreemap.interfaces.data.Tuple3ID;
 import kn.uni.voronoitreemap.j2d.Point2D;
 import kn.uni.voronoitreemap.j2d.PolygonSimple;
@@ -50,12 +67,12 @@ import kn.uni.voronoitreemap.j2d.Site;
  * 
  */
 public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
-	
-	// TODO remove debug Mode
-	public static ImageFrame frame;
-	public static Graphics2D graphics;
-	
-	
+
+	/** graphics for debugging, null if none **/
+	private Graphics2D graphics;
+	/** listener handed to the core of each node, null if none **/
+	private VoroCoreListener coreListener;
+
 	private boolean initialized = false;
 
 	private boolean useBorder = false;
@@ -64,8 +81,36 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	private boolean showLeafs = false;
 
 	private int numberThreads = 1;
+	private boolean useForkJoin = false;
+	private boolean usePriorityScheduling = false;
+	private VoroComputePool computePool;
+	private boolean memoryLean = false;
 	protected VoroNode root;
 	private PolygonSimple rootPolygon;
+	/** total iterations of all nodes, 0 for no limit **/
+	private long iterationBudget;
+	/** time in milliseconds for the whole computation, 0 for no limit **/
+	private long timeBudget;
+	private IterationBudget budget;
+	private static final int running = 0;
+	private static final int done = 1;
+	/**
+	 * state of the current computation, only the change from running to done
+	 * completes the future and releases the lock
+	 **/
+	private AtomicInteger state = new AtomicInteger(done);
+	/** set when the current computation is cancelled or timed out **/
+	private AtomicBoolean cancelled = new AtomicBoolean();
+	/** time in milliseconds at which the computation is cancelled, 0 for none **/
+	private volatile long timeoutAt;
+	/** cancels the computation at timeoutAt, null if there is no timeout **/
+	private volatile ScheduledFuture<?> timeoutTask;
+	private static ScheduledThreadPoolExecutor timeoutTimer;
+	private CompletableFuture<VoronoiTreemap> future;
+	private List<VoroCPU> computeThreads = new ArrayList<VoroCPU>();
+	/** size of the rendered image, 0 if unknown **/
+	private int outputWidth;
+	private int outputHeight;
 
 	int amountAllNodes = 0;
 	int alreadyDoneNodes = 0;
@@ -79,12 +124,17 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	 */
 	BlockingQueue<VoroNode> cellQueue = new LinkedBlockingQueue<VoroNode>();
 	private List<StatusObject> statusObject;
+	/** run when a computation is cancelled, the status objects are not notified then **/
+	private List<Runnable> cancelHooks;
 
 	// used for randomization
 	long randomSeed = 21;
 	Random rand = new Random(randomSeed);
 
-	private HashMap<Integer, VoroNode> idToNode;
+	/** nodes by their index in the tree **/
+	private VoroNode[] nodes;
+	/** lookup of the nodes by id, null if the ids are the indices **/
+	private NodeIdIndex idIndex;
 	private ArrayList<Tuple3ID> relativePositions;
 
 	VoroSettings coreSettings = new VoroSettings();
@@ -93,10 +143,47 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 
 	/** when a node is finished the status object is notified. **/
 
+	/**
+	 * Returns a new map from the node ids to the nodes.
+	 * 
+	 * @return
+	 * @deprecated builds the map on every call, use {@link #getNode(int)} or
+	 *             {@link #getNodes()}
+	 */
+	@Deprecated
 	public HashMap<Integer, VoroNode> getIdToNode() {
+		if (nodes == null)
+			return null;
+		HashMap<Integer, VoroNode> idToNode = new HashMap<Integer, VoroNode>(
+				Math.max(16, (int) (nodes.length / 0.75f) + 1));
+		for (VoroNode node : nodes)
+			idToNode.put(node.getNodeID(), node);
 		return idToNode;
 	}
 
+	/**
+	 * Returns all nodes of the tree by their index, the index of a node equals
+	 * its id unless the tree has ids of its own.
+	 * 
+	 * @return
+	 */
+	public VoroNode[] getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @param id
+	 * @return node with the given id or null
+	 */
+	public VoroNode getNode(int id) {
+		if (nodes == null)
+			return null;
+		if (idIndex == null)
+			return (id >= 0 && id < nodes.length) ? nodes[id] : null;
+		int index = idIndex.indexOf(id);
+		return (index >= 0) ? nodes[index] : null;
+	}
+
 	public VoronoiTreemap(StatusObject statusObject) {
 		this();
 		this.statusObject.add(statusObject);
@@ -114,9 +201,8 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	}
 
 	protected void recalculatePercentage() {
-		amountAllNodes = 0;
 		alreadyDoneNodes = 0;
-		root.calculateWeights();
+		amountAllNodes = root.calculateWeights();
 	}
 
 	protected void setRootCell(VoroNode cell) {
@@ -140,9 +226,10 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		if (cellQueue != null)
 			cellQueue.clear();
 		statusObject = new ArrayList<StatusObject>();
+		cancelHooks = new CopyOnWriteArrayList<Runnable>();
 		rand = new Random(randomSeed);
-		if (idToNode != null)
-			idToNode.clear();
+		nodes = null;
+		idIndex = null;
 		lock = new Semaphore(1);
 	}
 
@@ -150,7 +237,7 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		if (!initialized && root != null) {
 			initialized = true;
 			cellQueue.clear();
-			root.calculateWeights();
+			amountAllNodes = root.calculateWeights();
 			setRelativePositions(relativePositions);
 		}
 	}
@@ -158,8 +245,14 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	private void startComputeThreads() {
 		this.runningThreads = Collections
 				.newSetFromMap(new ConcurrentHashMap<VoroCPU, Boolean>());
-		for (int i = 0; i < getNumberThreads(); i++)
-			new VoroCPU(cellQueue, this, runningThreads).start();
+		// the root is queued already
+		AtomicInteger pendingNodes = new AtomicInteger(1);
+		computeThreads = new ArrayList<VoroCPU>();
+		for (int i = 0; i < getNumberThreads(); i++) {
+			VoroCPU cpu = new VoroCPU(cellQueue, this, runningThreads, pendingNodes);
+			computeThreads.add(cpu);
+			cpu.start();
+		}
 	}
 
 	/*
@@ -171,9 +264,185 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		if (rootPolygon == null)
 			throw new RuntimeException("Root Polygon not set.");
 		timeStart = System.currentTimeMillis();
+		cancelled = new AtomicBoolean();
+		state = new AtomicInteger(running);
+		timeoutTask = null;
+		if (timeoutAt > 0)
+			timeoutTask = getTimeoutTimer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					cancel(new TimeoutException(
+							"Computation of the treemap timed out."));
+				}
+			}, Math.max(0, timeoutAt - timeStart), TimeUnit.MILLISECONDS);
+		updatePixelScale();
 		initVoroNodes();
-		cellQueue.add(root);
-		startComputeThreads();
+		budget = null;
+		if (iterationBudget > 0 || timeBudget > 0)
+			budget = new IterationBudget(iterationBudget,
+					(timeBudget > 0) ? timeStart + timeBudget : 0,
+					getNumberThreads(), root, this);
+		if (computePool != null)
+			computePool.submit(this, root, usePriorityScheduling);
+		else if (useForkJoin)
+			startForkJoin();
+		else {
+			cellQueue = createCellQueue();
+			cellQueue.add(root);
+			startComputeThreads();
+		}
+	}
+
+	/**
+	 * Starts the computation like {@link #compute()} and returns a future
+	 * which completes with this treemap when all nodes are computed.
+	 * Cancelling the future stops the running cores and drops the nodes which
+	 * did not start yet.
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<VoronoiTreemap> computeAsync() {
+		return computeAsync(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Like {@link #computeAsync()}, the future completes exceptionally with a
+	 * TimeoutException if the computation is not finished within the timeout.
+	 * 
+	 * @param timeout
+	 *            0 for no timeout
+	 * @param unit
+	 * @return
+	 */
+	public CompletableFuture<VoronoiTreemap> computeAsync(long timeout,
+			TimeUnit unit) {
+		CompletableFuture<VoronoiTreemap> future = new CompletableFuture<VoronoiTreemap>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean result = super.cancel(mayInterruptIfRunning);
+				if (result)
+					VoronoiTreemap.this.cancel();
+				return result;
+			}
+		};
+		this.future = future;
+		timeoutAt = (timeout > 0) ? System.currentTimeMillis()
+				+ unit.toMillis(timeout) : 0;
+		compute();
+		return future;
+	}
+
+	/**
+	 * Cancels the running computation, the status objects are not notified.
+	 */
+	public void cancel() {
+		cancel(new CancellationException("Computation of the treemap cancelled."));
+	}
+
+	void cancel(Throwable reason) {
+		if (!state.compareAndSet(running, done))
+			return;
+		cancelled.set(true);
+		cellQueue.clear();
+		for (VoroCPU cpu : computeThreads)
+			cpu.interrupt();
+		stopTimeout();
+		for (Runnable hook : cancelHooks)
+			hook.run();
+		if (future != null)
+			future.completeExceptionally(reason);
+		lock.release();
+	}
+
+	private void stopTimeout() {
+		timeoutAt = 0;
+		ScheduledFuture<?> task = timeoutTask;
+		if (task != null)
+			task.cancel(false);
+		timeoutTask = null;
+	}
+
+	/**
+	 * Timer thread shared by all treemaps which cancels computations when
+	 * their timeout expires.
+	 */
+	private static synchronized ScheduledThreadPoolExecutor getTimeoutTimer() {
+		if (timeoutTimer == null) {
+			timeoutTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "VoronoiTreemap timeout");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			timeoutTimer.setRemoveOnCancelPolicy(true);
+		}
+		return timeoutTimer;
+	}
+
+	/**
+	 * Returns true if the computation has been cancelled or timed out.
+	 * 
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled.get();
+	}
+
+	AtomicBoolean getCancelFlag() {
+		return cancelled;
+	}
+
+	long getTimeoutAt() {
+		return timeoutAt;
+	}
+
+	private BlockingQueue<VoroNode> createCellQueue() {
+		if (usePriorityScheduling)
+			return new PriorityBlockingQueue<VoroNode>(11, VoroNode.heavierSubtreeFirst);
+		return new LinkedBlockingQueue<VoroNode>();
+	}
+
+	/**
+	 * Computes the nodes as tasks of a ForkJoinPool, the root task completes
+	 * after all nodes are computed.
+	 */
+	private void startForkJoin() {
+		final ForkJoinPool pool = new ForkJoinPool(getNumberThreads());
+		final ThreadLocal<CoreWorkspace> workspaces = new ThreadLocal<CoreWorkspace>() {
+			@Override
+			protected CoreWorkspace initialValue() {
+				return new CoreWorkspace();
+			}
+		};
+		final VoroTask rootTask = new VoroTask(root, this, workspaces,
+				usePriorityScheduling);
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rootTask.invoke();
+					if (!isCancelled())
+						finished();
+				} catch (Exception e) {
+					e.printStackTrace();
+					System.out.println("Computation of the treemap is stopped.");
+					cancel(e);
+				}
+				pool.shutdown();
+			}
+		});
+	}
+
+	private void updatePixelScale() {
+		if (outputWidth <= 0 || outputHeight <= 0) {
+			coreSettings.pixelScale = 0;
+			return;
+		}
+		Rectangle2D bounds = rootPolygon.getBounds2D();
+		coreSettings.pixelScale = Math.min(outputWidth / bounds.getWidth(),
+				outputHeight / bounds.getHeight());
 	}
 
 	public void computeLocked() {
@@ -202,7 +471,7 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 
 	private void setRelativePositions(ArrayList<Tuple3ID> relativePositions) {
 		if (relativePositions == null) {
-			for (VoroNode voroNode : idToNode.values()) {
+			for (VoroNode voroNode : nodes) {
 				double x = rand.nextDouble();
 				double y = rand.nextDouble();
 				voroNode.setRelativeVector(new Point2D(x, y));
@@ -217,7 +486,7 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	public void setReferenceMap(ArrayList<Tuple3ID> relativePositions) {
 		for (Tuple3ID tuple : relativePositions) {
 			VoroNode voroNode = null;
-			voroNode = idToNode.get(tuple.id);
+			voroNode = getNode(tuple.id);
 			if (voroNode != null) {
 
 				voroNode.setRelativeVector(new Point2D(tuple.valueX,
@@ -229,31 +498,6 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		}
 	}
 
-	protected final void addChildren(HashMap<Integer, VoroNode> idToNode,
-			final ArrayList<ArrayList<Integer>> adjLists, int currentPos) {
-		ArrayList<Integer> childList = adjLists.get(currentPos);
-		if (childList == null || childList.size() == 1)
-			return;
-
-		Integer parentId = childList.get(0);
-		VoroNode voroParent = idToNode.get(parentId);
-
-		// add children to parent
-
-		for (int i = 1; i < childList.size(); i++) {
-			Integer childId = childList.get(i);
-			VoroNode voroChild = idToNode.get(childId);
-			voroParent.addChild(voroChild);
-			voroChild.setParent(voroParent);
-		}
-		
-		for (int i = 1; i < childList.size(); i++) {
-			Integer childId = childList.get(i);
-			addChildren(idToNode, adjLists, childId);
-		}
-
-	}
-
 	void setShowLeafs(boolean showLeafs) {
 		this.showLeafs = showLeafs;
 	}
@@ -274,28 +518,35 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	 * 
 	 */
 	private class NodeIterator implements Iterator<VoroNode> {
-		Stack<VoroNode> stack;
+		VoroNode[] stack = new VoroNode[16];
+		int size = 0;
 
 		public NodeIterator(VoroNode root) {
-			stack = new Stack<VoroNode>();
-			stack.addAll(root.getChildren());
+			push(root.getChildren());
+
+		}
 
+		private void push(ArrayList<VoroNode> nodes) {
+			if (size + nodes.size() > stack.length)
+				stack = Arrays.copyOf(stack, Math.max(2 * stack.length, size + nodes.size()));
+			for (VoroNode node : nodes)
+				stack[size++] = node;
 		}
 
 		@Override
 		public boolean hasNext() {
-			if (stack.size() > 0) {
-				return true;
-			} else
-				return false;
+			return size > 0;
 		}
 
 		@Override
 		public VoroNode next() {
-			VoroNode t = stack.pop();
+			if (size == 0)
+				throw new NoSuchElementException();
+			VoroNode t = stack[--size];
+			stack[size] = null;
 			if (t != null && t.getChildren() != null
 					&& t.getChildren().size() > 0) {
-				stack.addAll(t.getChildren());
+				push(t.getChildren());
 			}
 			return t;
 		}
@@ -315,8 +566,13 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	
 	@Override
 	public synchronized void finished() {
+		if (!state.compareAndSet(running, done))
+			return;
 		for (StatusObject statusObject : this.statusObject)
 			statusObject.finished();
+		stopTimeout();
+		if (future != null)
+			future.complete(this);
 		lock.release();
 	}
 
@@ -358,6 +614,25 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		return graphics;
 	}
 
+	protected void setGraphics(Graphics2D graphics) {
+		this.graphics = graphics;
+	}
+
+	/**
+	 * Sets the listener which is notified about the iterations of the core of
+	 * each node of this treemap, e.g. an ImageFrameListener for debugging.
+	 * 
+	 * @param coreListener
+	 *            null for none
+	 */
+	public void setCoreListener(VoroCoreListener coreListener) {
+		this.coreListener = coreListener;
+	}
+
+	public VoroCoreListener getCoreListener() {
+		return coreListener;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -507,6 +782,78 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 
 	}
 
+	/**
+	 * Computes the nodes as tasks of a ForkJoinPool with the given number of
+	 * threads instead of the polling VoroCPU threads. A node forks the tasks
+	 * of its children when it is done and the computation is finished when
+	 * all tasks are joined.
+	 * 
+	 * @param useForkJoin
+	 */
+	public void setUseForkJoin(boolean useForkJoin) {
+		this.useForkJoin = useForkJoin;
+	}
+
+	public boolean getUseForkJoin() {
+		return useForkJoin;
+	}
+
+	/**
+	 * Computes the nodes with the most expensive subtrees first, estimated by
+	 * the number of descendants and their number of children. This keeps the
+	 * threads busy until the end in deep and skewed trees.
+	 * 
+	 * @param usePriorityScheduling
+	 */
+	public void setUsePriorityScheduling(boolean usePriorityScheduling) {
+		this.usePriorityScheduling = usePriorityScheduling;
+	}
+
+	public boolean getUsePriorityScheduling() {
+		return usePriorityScheduling;
+	}
+
+	/**
+	 * Computes the nodes on the threads of the given pool instead of starting
+	 * new threads, the pool can be shared by many treemaps. The number of
+	 * threads and the ForkJoin mode of this treemap are ignored then.
+	 * 
+	 * @param computePool
+	 *            null to start threads for each computation
+	 */
+	public void setComputePool(VoroComputePool computePool) {
+		this.computePool = computePool;
+	}
+
+	public VoroComputePool getComputePool() {
+		return computePool;
+	}
+
+	/**
+	 * Copies the current layout into flat arrays which can be read by many
+	 * threads, the treemap should be finished.
+	 * 
+	 * @return
+	 */
+	public TreemapSnapshot createSnapshot() {
+		return new TreemapSnapshot(this);
+	}
+
+	/**
+	 * Releases the core of each node as soon as the node is computed, only the
+	 * polygons and the sites of the cells are kept. This lowers the peak heap
+	 * for large trees.
+	 * 
+	 * @param memoryLean
+	 */
+	public void setMemoryLean(boolean memoryLean) {
+		this.memoryLean = memoryLean;
+	}
+
+	public boolean getMemoryLean() {
+		return memoryLean;
+	}
+
 	/**
 	 * @return the numberThreads
 	 */
@@ -525,6 +872,28 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		this.statusObject.add(statusObject);
 	}
 
+	/**
+	 * Adds a hook which is run by the cancelling thread when a computation is
+	 * cancelled or times out, e.g. to release resources which a status object
+	 * would release in {@link StatusObject#finished()}. The hooks run before
+	 * the future completes and should not block, since the cancelling thread
+	 * may be the timer shared by all treemaps.
+	 * 
+	 * @param hook
+	 */
+	public void addCancelHook(Runnable hook) {
+		cancelHooks.add(hook);
+	}
+
+	/**
+	 * Removes a hook added by {@link #addCancelHook(Runnable)}.
+	 * 
+	 * @param hook
+	 */
+	public void removeCancelHook(Runnable hook) {
+		cancelHooks.remove(hook);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -547,29 +916,88 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 			statusObject.finishedNode(Node, layer, children, polygons);
 	}
 
+	/**
+	 * Sets the tree as adjacency lists, the first element of list i is the id
+	 * i of the node itself, followed by the ids of its children. The root is
+	 * the node set by {@link #setRootIndex(int)}.
+	 * 
+	 * @param treeStructure
+	 */
 	public void setTree(ArrayList<ArrayList<Integer>> treeStructure) {
-		idToNode = new HashMap<Integer, VoroNode>();
+		setTree(CompactTree.fromAdjacencyLists(treeStructure, rootIndex));
+	}
 
-		for (int i = 0; i < treeStructure.size(); i++) {
-			ArrayList<Integer> adj = treeStructure.get(i);
-			VoroNode node = new VoroNode(i, adj.size() - 1);
-			idToNode.put(i, node);
+	/**
+	 * Sets the tree in compressed sparse row format. Weights and names of the
+	 * tree are taken over if it has them, the weights only without uniform
+	 * weights.
+	 * 
+	 * @param tree
+	 */
+	public void setTree(CompactTree tree) {
+		rootIndex = tree.rootIndex;
+		int size = tree.size();
+		nodes = new VoroNode[size];
+		setNodeIds(tree.nodeIds);
+		for (int i = 0; i < size; i++) {
+			VoroNode node = new VoroNode(tree.getNodeId(i), tree.getChildCount(i));
 			node.setTreemap(this);
+			if (tree.weight != null && !getUniFormWeights())
+				node.setWeight(tree.weight[i]);
+			if (tree.names != null)
+				node.setName(tree.names[i]);
+			nodes[i] = node;
 		}
 
-		root = idToNode.get(rootIndex);
+		root = nodes[rootIndex];
 
-		addChildren(idToNode, treeStructure, rootIndex);
+		addChildren(tree);
 
-		for (VoroNode voroNode : idToNode.values()) {
+		for (int i = 0; i < size; i++) {
 			double x = rand.nextDouble();
 			double y = rand.nextDouble();
-			voroNode.setRelativeVector(new Point2D(x, y));
+			nodes[i].setRelativeVector(new Point2D(x, y));
 		}
 
 		root.setVoroPolygon(rootPolygon);
 	}
 
+	/**
+	 * Sorts the ids for {@link #getNode(int)}, ids equal to the indices need
+	 * no lookup table.
+	 */
+	private void setNodeIds(int[] nodeIds) {
+		idIndex = null;
+		if (nodeIds == null)
+			return;
+		boolean identity = true;
+		for (int i = 0; i < nodeIds.length && identity; i++)
+			identity = nodeIds[i] == i;
+		if (!identity)
+			idIndex = new NodeIdIndex(nodeIds, nodeIds.length);
+	}
+
+	/**
+	 * Links the nodes of the subtree of the root in breadth-first order.
+	 */
+	private void addChildren(CompactTree tree) {
+		int[] queue = new int[nodes.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = rootIndex;
+		while (head < tail) {
+			int parentId = queue[head++];
+			VoroNode voroParent = nodes[parentId];
+			for (int k = tree.childOffsets[parentId]; k < tree.childOffsets[parentId + 1]; k++) {
+				int childId = tree.children[k];
+				VoroNode voroChild = nodes[childId];
+				voroParent.addChild(voroChild);
+				voroChild.setParent(voroParent);
+				queue[tail++] = childId;
+			}
+		}
+	}
+
 	public void clear() {
 		init();
 	}
@@ -588,24 +1016,103 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 
 	}
 
-	public void setTreeData(TreeData treeData) {
-		rootIndex = treeData.rootIndex;
+	/**
+	 * Cells whose area error stays below the error threshold for the given
+	 * number of iterations are neither moved nor re-weighted until they or one
+	 * of their neighbours are off again, 0 disables freezing.
+	 * 
+	 * @param iterations
+	 */
+	public void setFreezeAfter(int iterations) {
+		coreSettings.freezeAfter = iterations;
+	}
 
-		setTree(treeData.tree);
-		root.setVoroPolygon(rootPolygon);
+	/**
+	 * Limits the total number of iterations of all nodes. The iterations are
+	 * split among the nodes by their number of children and their area, a
+	 * node which used up its share keeps its current layout.
+	 * 
+	 * @param iterations
+	 *            0 for no limit
+	 */
+	public void setIterationBudget(long iterations) {
+		iterationBudget = iterations;
+	}
 
-		// set names and weights
-		if (treeData != null && treeData.nodeAtt != null) {
-			for (Integer id : idToNode.keySet()) {
-				VoroNode voroNode = idToNode.get(id);
-				Node node = treeData.nodeAtt.get(id);
-				if(node==null) continue;
-				if (!getUniFormWeights())
-					voroNode.setWeight(node.weight);
-				voroNode.setName(node.name);
-			}
-		}
+	/**
+	 * Limits the time for computing the whole treemap, the time is split
+	 * among the nodes like the iteration budget.
+	 * 
+	 * @param milliseconds
+	 *            time from the start of the computation, 0 for no limit
+	 * @see #setIterationBudget(long)
+	 */
+	public void setTimeBudget(long milliseconds) {
+		timeBudget = milliseconds;
+	}
+
+	IterationBudget getIterationBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the size of the image the treemap is rendered to, e.g. the image of
+	 * the PNGStatusObject has the size of the bounding box of the root polygon
+	 * plus its border. A node stops iterating as soon as the area error of
+	 * each of its cells is below the pixel area tolerance in this resolution.
+	 * A size of 0 disables this criterion.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setOutputResolution(int width, int height) {
+		outputWidth = width;
+		outputHeight = height;
+	}
+
+	/**
+	 * Sets the area error in output pixels up to which a cell counts as
+	 * converged, see {@link #setOutputResolution(int, int)}.
+	 * 
+	 * @param pixels
+	 */
+	public void setPixelAreaTolerance(double pixels) {
+		coreSettings.pixelAreaTolerance = pixels;
+	}
+
+	/**
+	 * Recomputes only the cells of changed sites and their neighbours while few
+	 * sites change between iterations, which pays off together with
+	 * {@link #setFreezeAfter(int)}.
+	 * 
+	 * @param incremental
+	 */
+	public void setIncrementalDiagram(boolean incremental) {
+		coreSettings.incrementalDiagram = incremental;
+	}
+
+	/**
+	 * Sets the strategy which moves the sites and adapts their weights, e.g.
+	 * the NewtonOptimizer needs far fewer iterations to reach small area errors
+	 * than the default HeuristicOptimizer.
+	 * 
+	 * @param optimizer
+	 */
+	public void setOptimizer(VoroOptimizer optimizer) {
+		coreSettings.optimizer = optimizer;
+	}
 
+	/**
+	 * Sets the acceleration of the MomentumOptimizer, 1 means no acceleration.
+	 * 
+	 * @param boostConvergence
+	 */
+	public void setBoostConvergence(double boostConvergence) {
+		coreSettings.boostConvergence = boostConvergence;
+	}
+
+	public void setTreeData(TreeData treeData) {
+		setTree(treeData.toCompactTree());
 	}
 
 	public void readEdgeList(String file) {
@@ -617,6 +1124,44 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 		}
 	}
 
+	/**
+	 * Reads the same format as {@link #readEdgeList(String)} in a single pass
+	 * over the memory mapped file, see {@link IO#readEdgeListMapped(String)}.
+	 * Files of 2GB or more are read by
+	 * {@link IO#readEdgeListParallel(String, int)} with the number of threads
+	 * of this treemap. Unlike {@link #readEdgeList(String)}, a node listed in
+	 * several lines only hangs under the parent of its last line, and a root
+	 * without a line of its own has weight 1 and no name.
+	 * 
+	 * @param file
+	 */
+	public void readEdgeListMapped(String file) {
+		try {
+			TreeData data;
+			if (new File(file).length() > Integer.MAX_VALUE)
+				data = IO.readEdgeListParallel(file, getNumberThreads());
+			else
+				data = IO.readEdgeListMapped(file);
+			setTreeData(data);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads a tree written by {@link BinaryTreeFormat}.
+	 * 
+	 * @param file
+	 */
+	public void readBinaryTree(String file) {
+		try {
+			TreeData data = BinaryTreeFormat.read(file);
+			setTreeData(data);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public boolean getUniFormWeights() {
 		return uniformWeights;
 	}
@@ -624,7 +1169,7 @@ public class VoronoiTreemap implements Iterable<VoroNode>, StatusObject {
 	public void setUniformWeights(boolean considerWeights) {
 		this.uniformWeights = considerWeights;
 		if (uniformWeights)
-			for (VoroNode node : idToNode.values())
+			for (VoroNode node : nodes)
 				node.setWeight(1.0);
 	}
 }